@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.klinker.android.send_message.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.klinker.android.send_message.GsmCharset;
+import com.klinker.android.send_message.StripAccents;
+
+/**
+ * Throughput of the per character scans that do not depend on the enabled language tables, so unlike
+ * TextEncodingBenchmark they only run once per corpus. Scores are in corpora per millisecond.
+ *
+ * @author Jake Klinker
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CharacterScanBenchmark {
+
+	@Param({ Corpus.ASCII, Corpus.LATIN, Corpus.GREEK, Corpus.EMOJI, Corpus.MIXED, Corpus.TURKISH, Corpus.PORTUGUESE })
+	public String corpus;
+
+	private String[] messages;
+
+	@Setup
+	public void setUp() {
+		messages = Corpus.get(corpus);
+	}
+
+	@Benchmark
+	public void stripAccents(Blackhole bh) {
+		for (String message : messages)
+			bh.consume(StripAccents.stripAccents(message));
+	}
+
+	@Benchmark
+	public void indexOfUnencodable(Blackhole bh) {
+		for (String message : messages)
+			bh.consume(GsmCharset.indexOfUnencodable(message));
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.klinker.android.send_message.benchmark;
+
+/**
+ * Message bodies used by the benchmarks, one set per kind of text people actually send. Each body is short enough to
+ * be packed into a single pdu so the same corpus can be used for counting, stripping and packing.
+ *
+ * @author Jake Klinker
+ */
+public class Corpus {
+
+	public static final String ASCII = "ascii";
+	public static final String LATIN = "latin";
+	public static final String GREEK = "greek";
+	public static final String EMOJI = "emoji";
+	public static final String MIXED = "mixed";
+	public static final String TURKISH = "turkish";
+	public static final String PORTUGUESE = "portuguese";
+
+	private static final String[] ASCII_MESSAGES = new String[] {
+		"Hey, are we still on for dinner tonight? I can pick you up around 7 if that works.",
+		"Running 10 minutes late, traffic on the highway is terrible. Order me a coffee please!",
+		"Your verification code is 482913. It expires in 10 minutes. Do not share it with anyone.",
+		"ok sounds good, see you then",
+		"Don't forget the meeting moved to room 204 (2nd floor) at 3:30pm - bring the slides."
+	};
+
+	private static final String[] LATIN_MESSAGES = new String[] {
+		"Salut ! On se retrouve au café à côté de la gare à 18h ? J'ai hâte de te voir, à tout à l'heure.",
+		"Cześć, czy możesz kupić chleb i mleko w drodze do domu? Dziękuję bardzo, do zobaczenia!",
+		"Ahoj, zítra nemůžu přijít, mám schůzku v práci. Můžeme to přesunout na čtvrtek?",
+		"¿Qué tal? Mañana salimos a las nueve, no olvides traer el pasaporte y la cámara.",
+		"Bom dia! A reunião foi adiada para terça-feira às 14h, na sala de conferências."
+	};
+
+	private static final String[] GREEK_MESSAGES = new String[] {
+		"Γεια σου! Θα βρεθούμε στην πλατεία στις οκτώ; Φέρε και την κιθάρα σου.",
+		"Καλημέρα, το πακέτο σας παραδόθηκε σήμερα στις 10:30. Ευχαριστούμε!",
+		"Χρόνια πολλά! Να είσαι πάντα καλά και ευτυχισμένη.",
+		"Έρχομαι σε πέντε λεπτά, περίμενε με έξω από το σχολείο.",
+		"Ο κωδικός επαλήθευσης είναι 553120 και λήγει σε δέκα λεπτά."
+	};
+
+	private static final String[] EMOJI_MESSAGES = new String[] {
+		"Happy birthday!! 🎉🎂🎈 Have an amazing day ❤️",
+		"lol 😂😂😂 that's hilarious",
+		"On my way 🚗💨 be there in 5",
+		"Good night 😴🌙✨",
+		"👍👍 sounds perfect, thanks! 🙏"
+	};
+
+	private static final String[] MIXED_MESSAGES = new String[] {
+		"Meet at Café Größe at 8? 🍻 Bring €20 for the tab {split 4 ways}.",
+		"Ahoj! Flight AΘ 1234 lands 21:05 ✈️ see you at arrivals ~ gate [B]",
+		"Reminder: pay the rent (€850) by Friday | ref #4471 💸",
+		"Καλή χρονιά! Happy new year 🎆 à bientôt, łatwo, zítra",
+		"Code: 8812 ^ do not share \\ support@example.com 🔒"
+	};
+
+	// written for the national tables, most of these characters are missing from the default alphabet
+	private static final String[] TURKISH_MESSAGES = new String[] {
+		"Günaydın! Bugün öğleden sonra işten çıkınca çarşıda buluşalım mı? Şemsiyeni unutma.",
+		"Doğum günün kutlu olsun, nice mutlu yıllara! Ağabeyin ve ailesi de selam söylüyor.",
+		"Doğrulama kodunuz 740218. Bu kodu kimseyle paylaşmayın, süresi 10 dakikadır.",
+		"Şoför ışıkta bekliyor, çabuk iniver. Çok geç kaldık zaten!",
+		"Yarınki toplantı İstanbul ofisinde saat 14:30'da, sunumu getirmeyi unutma."
+	};
+
+	private static final String[] PORTUGUESE_MESSAGES = new String[] {
+		"Olá! Você já jantou? Estou a caminho, chego em dez minutos com o pão e o vinho.",
+		"Atenção: a sua encomenda será entregue amanhã entre as 9h e as 13h. Obrigado!",
+		"Parabéns pelo aniversário! Que este ano lhe traga muita saúde e alegria.",
+		"Não esqueça a reunião de terça-feira às 15h, na sala de conferências do 3º andar.",
+		"O código de verificação é 915530 e expira em cinco minutos. Não o partilhe."
+	};
+
+	/**
+	 * Gets the messages of one corpus
+	 *
+	 * @param name
+	 *            is one of ASCII, LATIN, GREEK, EMOJI, MIXED, TURKISH or PORTUGUESE
+	 * @return the message bodies
+	 */
+	public static String[] get(String name) {
+		if (ASCII.equals(name))
+			return ASCII_MESSAGES;
+		if (LATIN.equals(name))
+			return LATIN_MESSAGES;
+		if (GREEK.equals(name))
+			return GREEK_MESSAGES;
+		if (EMOJI.equals(name))
+			return EMOJI_MESSAGES;
+		if (MIXED.equals(name))
+			return MIXED_MESSAGES;
+		if (TURKISH.equals(name))
+			return TURKISH_MESSAGES;
+		if (PORTUGUESE.equals(name))
+			return PORTUGUESE_MESSAGES;
+
+		throw new IllegalArgumentException("Unknown corpus " + name);
+	}
+}
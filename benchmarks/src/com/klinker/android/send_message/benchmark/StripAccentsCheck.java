@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.klinker.android.send_message.benchmark;
+
+import java.util.Random;
+
+import com.klinker.android.send_message.StripAccents;
+
+/**
+ * Checks that the single pass StripAccents gives the same output as the replaceAll loop it replaced. Every corpus is
+ * compared, along with every character on its own and random mixes of mapped and unmapped characters. Exits with a
+ * non zero status and prints the differing inputs if anything does not match.
+ *
+ * @author Jake Klinker
+ */
+public class StripAccentsCheck {
+
+	private static final String[] CORPORA = new String[] { Corpus.ASCII, Corpus.LATIN, Corpus.GREEK, Corpus.EMOJI,
+			Corpus.MIXED, Corpus.TURKISH, Corpus.PORTUGUESE };
+
+	private static final int RANDOM_MESSAGES = 10000;
+	private static final int RANDOM_LENGTH = 160;
+
+	private static int sChecked;
+	private static int sFailed;
+
+	public static void main(String[] args) {
+		// custom transliterations are not part of the old implementation, compare the built in table only
+		StripAccents.reset();
+
+		for (String name : CORPORA) {
+			for (String message : Corpus.get(name))
+				check(message);
+		}
+
+		for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++)
+			check(String.valueOf((char) c));
+
+		String alphabet = StripAccents.characters + StripAccents.gsm + " .,!?0123456789é€😀";
+		Random random = new Random(0);
+		for (int i = 0; i < RANDOM_MESSAGES; i++) {
+			StringBuilder builder = new StringBuilder(RANDOM_LENGTH);
+			for (int j = random.nextInt(RANDOM_LENGTH); j >= 0; j--)
+				builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			check(builder.toString());
+		}
+
+		System.out.println("Checked " + sChecked + " messages, " + sFailed + " mismatches");
+
+		if (sFailed != 0)
+			System.exit(1);
+	}
+
+	private static void check(String message) {
+		String expected = legacyStripAccents(message);
+		String actual = StripAccents.stripAccents(message);
+
+		sChecked++;
+		if (!expected.equals(actual)) {
+			sFailed++;
+			System.out.println("Mismatch for \"" + message + "\": expected \"" + expected + "\", got \"" + actual
+					+ "\"");
+		}
+	}
+
+	// the implementation StripAccents had before the single pass table, kept as the reference
+	private static String legacyStripAccents(String s) {
+		for (int i = 0; i < StripAccents.characters.length(); i++) {
+			s = s.replaceAll(StripAccents.characters.substring(i, i + 1), StripAccents.gsm.substring(i, i + 1));
+		}
+		return s;
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2013 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.klinker.android.send_message.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.android.internal.telephony.EncodeException;
+import com.android.internal.telephony.GsmAlphabet;
+import com.klinker.android.send_message.Settings;
+import com.klinker.android.send_message.Utils;
+
+/**
+ * Throughput of the text encoding paths used when an sms is counted and sent. Every operation runs over the whole
+ * corpus, so scores are in corpora per millisecond. Run with the gc profiler (ant run does) to also get the bytes
+ * allocated per operation. The tables param is enabled in GsmAlphabet for the run, so countGsmSeptets and
+ * getNumPages search the national tables the way they do on a carrier that enables them. Paths that do not depend
+ * on the tables are in CharacterScanBenchmark.
+ *
+ * @author Jake Klinker
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextEncodingBenchmark {
+
+	@Param({ Corpus.ASCII, Corpus.LATIN, Corpus.GREEK, Corpus.EMOJI, Corpus.MIXED, Corpus.TURKISH, Corpus.PORTUGUESE })
+	public String corpus;
+
+	// language and single shift table, the default alphabet and the Turkish and Portuguese national tables
+	@Param({ "0/0", "1/1", "3/3" })
+	public String tables;
+
+	private int languageTable;
+	private int languageShiftTable;
+
+	private String[] messages;
+	private byte[][] packed;
+	private Settings settings;
+	private byte[] packBuffer;
+	private StringBuilder unpackBuffer;
+
+	@Setup
+	public void setUp() throws EncodeException {
+		messages = Corpus.get(corpus);
+
+		String[] table = tables.split("/");
+		languageTable = Integer.parseInt(table[0]);
+		languageShiftTable = Integer.parseInt(table[1]);
+
+		packed = new byte[messages.length][];
+		for (int i = 0; i < messages.length; i++)
+			packed[i] = GsmAlphabet.stringToGsm7BitPacked(messages[i], 0, false, languageTable, languageShiftTable);
+
+		settings = new Settings();
+		settings.setStripUnicode(true);
+
+		packBuffer = new byte[256];
+		unpackBuffer = new StringBuilder(256);
+
+		GsmAlphabet.setEnabledLanguageTables(new int[] { languageTable }, new int[] { languageShiftTable });
+	}
+
+	@TearDown
+	public void tearDown() {
+		GsmAlphabet.resetEnabledLanguageTables();
+	}
+
+	@Benchmark
+	public void countGsmSeptets(Blackhole bh) {
+		for (String message : messages)
+			bh.consume(GsmAlphabet.countGsmSeptets(message, false));
+	}
+
+	@Benchmark
+	public void countGsmSeptetsUsingTables(Blackhole bh) {
+		for (String message : messages)
+			bh.consume(GsmAlphabet.countGsmSeptetsUsingTables(message, true, languageTable, languageShiftTable));
+	}
+
+	@Benchmark
+	public void stringToGsm7BitPacked(Blackhole bh) throws EncodeException {
+		for (String message : messages)
+			bh.consume(GsmAlphabet.stringToGsm7BitPacked(message, 0, false, languageTable, languageShiftTable));
+	}
+
+	@Benchmark
+	public void stringToGsm7BitPackedIntoBuffer(Blackhole bh) throws EncodeException {
+		for (String message : messages)
+			bh.consume(GsmAlphabet.stringToGsm7BitPacked(message, 0, false, languageTable, languageShiftTable, packBuffer, 0));
+	}
+
+	@Benchmark
+	public void gsm7BitPackedToString(Blackhole bh) {
+		for (byte[] pdu : packed)
+			bh.consume(GsmAlphabet.gsm7BitPackedToString(pdu, 1, pdu[0] & 0xff, 0, languageTable, languageShiftTable));
+	}
+
+	@Benchmark
+	public void gsm7BitPackedToStringIntoBuffer(Blackhole bh) {
+		for (byte[] pdu : packed) {
+			unpackBuffer.setLength(0);
+			bh.consume(GsmAlphabet.gsm7BitPackedToString(pdu, 1, pdu[0] & 0xff, 0, languageTable, languageShiftTable, unpackBuffer));
+		}
+	}
+
+	@Benchmark
+	public void getNumPages(Blackhole bh) {
+		for (String message : messages)
+			bh.consume(Utils.getNumPages(settings, message));
+	}
+}
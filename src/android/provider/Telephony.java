@@ -709,6 +709,7 @@ public final class Telephony {
         public static final int MESSAGE_BOX_SENT = 2;
         public static final int MESSAGE_BOX_DRAFTS = 3;
         public static final int MESSAGE_BOX_OUTBOX = 4;
+        public static final int MESSAGE_BOX_FAILED = 5;
 
         /**
          * The date the message was received.
@@ -16,9 +16,9 @@
 
 package com.android.internal.telephony;
 
+import android.content.res.Resources;
 import android.text.TextUtils;
 import android.util.Log;
-import android.util.SparseIntArray;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
@@ -377,7 +377,58 @@ public class GsmAlphabet {
     public static byte[] stringToGsm7BitPacked(String data, int startingSeptetOffset,
                                                boolean throwException, int languageTable, int languageShiftTable)
             throws EncodeException {
-        int dataLen = data.length();
+        int septetCount = countPackedSeptets(data, startingSeptetOffset, throwException,
+                languageTable, languageShiftTable);
+        int byteCount = ((septetCount * 7) + 7) / 8;
+        byte[] ret = new byte[byteCount + 1];  // Include space for one byte length prefix.
+        packSeptets(data, septetCount, startingSeptetOffset, throwException, languageTable,
+                languageShiftTable, ret, 0, byteCount);
+        return ret;
+    }
+
+    /**
+     * Converts a String into the 7-bit packed GSM Alphabet representation
+     * of the string, written into a buffer supplied by the caller so that
+     * it can be reused across messages.
+     * <p/>
+     * The layout is the same as for the byte array returned by
+     * {@link #stringToGsm7BitPacked(String, int, boolean, int, int)}: the
+     * byte at destOffset is the count of septets used, followed by the
+     * packed septets.
+     *
+     * @param data                 the text to convert to septets
+     * @param startingSeptetOffset the number of padding septets to put before
+     *                             the character data
+     * @param throwException       If true, throws EncodeException on invalid char.
+     *                             If false, replaces unencodable char with GSM alphabet space char.
+     * @param languageTable        the 7 bit language table, or 0 for the default GSM alphabet
+     * @param languageShiftTable   the 7 bit single shift language table, or 0 for the default
+     *                             GSM extension table
+     * @param dest                 the buffer to write the encoded message into
+     * @param destOffset           the offset in dest of the septet count byte
+     * @return the number of bytes written, including the septet count byte
+     * @throws EncodeException if String is too large to encode
+     * @throws IllegalArgumentException if dest is too small to hold the encoded message
+     */
+    public static int stringToGsm7BitPacked(String data, int startingSeptetOffset,
+                                            boolean throwException, int languageTable, int languageShiftTable,
+                                            byte[] dest, int destOffset)
+            throws EncodeException {
+        int septetCount = countPackedSeptets(data, startingSeptetOffset, throwException,
+                languageTable, languageShiftTable);
+        int byteCount = ((septetCount * 7) + 7) / 8;
+        if (destOffset < 0 || dest.length - destOffset < byteCount + 1) {
+            throw new IllegalArgumentException("Destination needs " + (byteCount + 1)
+                    + " bytes at offset " + destOffset + ", has " + (dest.length - destOffset));
+        }
+        packSeptets(data, septetCount, startingSeptetOffset, throwException, languageTable,
+                languageShiftTable, dest, destOffset, byteCount);
+        return byteCount + 1;
+    }
+
+    private static int countPackedSeptets(String data, int startingSeptetOffset,
+                                          boolean throwException, int languageTable, int languageShiftTable)
+            throws EncodeException {
         int septetCount = countGsmSeptetsUsingTables(data, !throwException,
                 languageTable, languageShiftTable);
         if (septetCount == -1) {
@@ -387,13 +438,35 @@ public class GsmAlphabet {
         if (septetCount > 255) {
             throw new EncodeException("Payload cannot exceed 255 septets");
         }
-        int byteCount = ((septetCount * 7) + 7) / 8;
-        byte[] ret = new byte[byteCount + 1];  // Include space for one byte length prefix.
-        SparseIntArray charToLanguageTable = sCharsToGsmTables[languageTable];
-        SparseIntArray charToShiftTable = sCharsToShiftTables[languageShiftTable];
-        for (int i = 0, septets = startingSeptetOffset, bitOffset = startingSeptetOffset * 7;
-             i < dataLen && septets < septetCount;
-             i++, bitOffset += 7) {
+        return septetCount;
+    }
+
+    /**
+     * Pack the septets of a string into dest, after the septet count byte.
+     * Septets are collected in a long and written out 7 bytes at a time,
+     * which holds exactly 8 septets, instead of being or'ed into the
+     * destination one at a time. Every byte of the destination range is
+     * written, so dest does not need to be cleared first.
+     */
+    private static void packSeptets(String data, int septetCount, int startingSeptetOffset,
+                                    boolean throwException, int languageTable, int languageShiftTable,
+                                    byte[] dest, int destOffset, int byteCount)
+            throws EncodeException {
+        CharTable charToLanguageTable = sCharsToGsmTables[languageTable];
+        CharTable charToShiftTable = sCharsToShiftTables[languageShiftTable];
+        int dataLen = data.length();
+        int out = destOffset + 1;
+        int end = out + byteCount;
+
+        // the padding septets are all zero, so whole bytes of it can be written directly
+        int paddingBits = startingSeptetOffset * 7;
+        for (int i = paddingBits / 8; i > 0; i--) {
+            dest[out++] = 0;
+        }
+        long bits = 0;
+        int bitCount = paddingBits % 8;
+
+        for (int i = 0, septets = startingSeptetOffset; i < dataLen && septets < septetCount; i++) {
             char c = data.charAt(i);
             int v = charToLanguageTable.get(c, -1);
             if (v == -1) {
@@ -405,36 +478,43 @@ public class GsmAlphabet {
                         v = charToLanguageTable.get(' ', ' ');   // should return ASCII space
                     }
                 } else {
-                    packSmsChar(ret, bitOffset, GSM_EXTENDED_ESCAPE);
-                    bitOffset += 7;
+                    bits |= (long) GSM_EXTENDED_ESCAPE << bitCount;
+                    bitCount += 7;
                     septets++;
+                    if (bitCount >= 56) {
+                        out = flushSeptets(bits, 7, dest, out, end);
+                        bits >>>= 56;
+                        bitCount -= 56;
+                    }
                 }
             }
-            packSmsChar(ret, bitOffset, v);
+            bits |= (long) v << bitCount;
+            bitCount += 7;
             septets++;
+            if (bitCount >= 56) {
+                out = flushSeptets(bits, 7, dest, out, end);
+                bits >>>= 56;
+                bitCount -= 56;
+            }
         }
-        ret[0] = (byte) (septetCount);  // Validated by check above.
-        return ret;
+        out = flushSeptets(bits, (bitCount + 7) / 8, dest, out, end);
+        while (out < end) {
+            dest[out++] = 0;
+        }
+        dest[destOffset] = (byte) (septetCount);  // Validated by countPackedSeptets.
     }
 
     /**
-     * Pack a 7-bit char into its appropriate place in a byte array
+     * Write the low bytes of a septet accumulator, stopping at the end of the
+     * destination range.
      *
-     * @param packedChars the destination byte array
-     * @param bitOffset   the bit offset that the septet should be packed at
-     *                    (septet index * 7)
-     * @param value       the 7-bit character to store
+     * @return the offset after the last byte written
      */
-    private static void
-    packSmsChar(byte[] packedChars, int bitOffset, int value) {
-        int byteOffset = bitOffset / 8;
-        int shift = bitOffset % 8;
-
-        packedChars[++byteOffset] |= value << shift;
-
-        if (shift > 1) {
-            packedChars[++byteOffset] = (byte) (value >> (8 - shift));
+    private static int flushSeptets(long bits, int byteCount, byte[] dest, int out, int end) {
+        for (int i = 0; i < byteCount && out < end; i++, bits >>>= 8) {
+            dest[out++] = (byte) bits;
         }
+        return out;
     }
 
     /**
@@ -472,6 +552,35 @@ public class GsmAlphabet {
     public static String gsm7BitPackedToString(byte[] pdu, int offset,
                                                int lengthSeptets, int numPaddingBits, int languageTable, int shiftTable) {
         StringBuilder ret = new StringBuilder(lengthSeptets);
+        if (gsm7BitPackedToString(pdu, offset, lengthSeptets, numPaddingBits, languageTable,
+                shiftTable, ret) == -1) {
+            return null;
+        }
+        return ret.toString();
+    }
+
+    /**
+     * Convert a GSM alphabet 7 bit packed string (SMS string) into
+     * characters appended to a {@link java.lang.StringBuilder} supplied by
+     * the caller, so that one builder can be reused across messages.
+     * <p/>
+     * See TS 23.038 6.1.2.1 for SMS Character Packing
+     *
+     * @param pdu            the raw data from the pdu_alt
+     * @param offset         the byte offset of
+     * @param lengthSeptets  string length in septets, not bytes
+     * @param numPaddingBits the number of padding bits before the start of the
+     *                       string in the first byte
+     * @param languageTable  the 7 bit language table, or 0 for the default GSM alphabet
+     * @param shiftTable     the 7 bit single shift language table, or 0 for the default
+     *                       GSM extension table
+     * @param dest           the builder the characters are appended to
+     * @return the number of characters appended, or -1 on decoding exception,
+     * in which case dest is left as it was
+     */
+    public static int gsm7BitPackedToString(byte[] pdu, int offset, int lengthSeptets,
+                                            int numPaddingBits, int languageTable, int shiftTable, StringBuilder dest) {
+        int startLength = dest.length();
 
         if (languageTable < 0 || languageTable > sLanguageTables.length) {
             Log.w(TAG, "unknown language table " + languageTable + ", using default");
@@ -496,47 +605,56 @@ public class GsmAlphabet {
                 shiftTableToChar = sLanguageShiftTables[0];
             }
 
-            for (int i = 0; i < lengthSeptets; i++) {
-                int bitOffset = (7 * i) + numPaddingBits;
-
-                int byteOffset = bitOffset / 8;
-                int shift = bitOffset % 8;
-                int gsmVal;
-
-                gsmVal = (0x7f & (pdu[offset + byteOffset] >> shift));
+            // Septets are pulled out of a long that is refilled 7 bytes, or 8
+            // septets, at a time. Only the bytes that hold the string are read.
+            int index = offset + numPaddingBits / 8;
+            int end = offset + (numPaddingBits + (lengthSeptets * 7) + 7) / 8;
+            long bits = 0;
+            int bitCount = 0;
+            int skipBits = numPaddingBits % 8;
 
-                // if it crosses a byte boundary
-                if (shift > 1) {
-                    // set msb bits to 0
-                    gsmVal &= 0x7f >> (shift - 1);
-
-                    gsmVal |= 0x7f & (pdu[offset + byteOffset + 1] << (8 - shift));
+            for (int i = 0; i < lengthSeptets; i++) {
+                if (bitCount < 7) {
+                    while (bitCount <= 56 - 8 && index < end) {
+                        bits |= (pdu[index++] & 0xffL) << bitCount;
+                        bitCount += 8;
+                    }
+                    if (skipBits != 0) {
+                        bits >>>= skipBits;
+                        bitCount -= skipBits;
+                        skipBits = 0;
+                    }
                 }
 
+                int gsmVal = (int) bits & 0x7f;
+                bits >>>= 7;
+                bitCount -= 7;
+
                 if (prevCharWasEscape) {
                     if (gsmVal == GSM_EXTENDED_ESCAPE) {
-                        ret.append(' ');    // display ' ' for reserved double escape sequence
+                        dest.append(' ');    // display ' ' for reserved double escape sequence
                     } else {
                         char c = shiftTableToChar.charAt(gsmVal);
                         if (c == ' ') {
-                            ret.append(languageTableToChar.charAt(gsmVal));
+                            dest.append(languageTableToChar.charAt(gsmVal));
                         } else {
-                            ret.append(c);
+                            dest.append(c);
                         }
                     }
                     prevCharWasEscape = false;
                 } else if (gsmVal == GSM_EXTENDED_ESCAPE) {
                     prevCharWasEscape = true;
                 } else {
-                    ret.append(languageTableToChar.charAt(gsmVal));
+                    dest.append(languageTableToChar.charAt(gsmVal));
                 }
             }
         } catch (RuntimeException ex) {
             Log.e(TAG, "Error GSM 7 bit packed: ", ex);
-            return null;
+            dest.setLength(startLength);
+            return -1;
         }
 
-        return ret.toString();
+        return dest.length() - startLength;
     }
 
 
@@ -665,8 +783,8 @@ public class GsmAlphabet {
     public static void
     stringToGsm8BitUnpackedField(String s, byte dest[], int offset, int length) {
         int outByteIndex = offset;
-        SparseIntArray charToLanguageTable = sCharsToGsmTables[0];
-        SparseIntArray charToShiftTable = sCharsToShiftTables[0];
+        CharTable charToLanguageTable = sCharsToGsmTables[0];
+        CharTable charToShiftTable = sCharsToShiftTables[0];
 
         // Septets are stored in byte-aligned octets
         for (int i = 0, sz = s.length()
@@ -763,8 +881,8 @@ public class GsmAlphabet {
                                                  int languageTable, int languageShiftTable) {
         int count = 0;
         int sz = s.length();
-        SparseIntArray charToLanguageTable = sCharsToGsmTables[languageTable];
-        SparseIntArray charToShiftTable = sCharsToShiftTables[languageShiftTable];
+        CharTable charToLanguageTable = sCharsToGsmTables[languageTable];
+        CharTable charToShiftTable = sCharsToShiftTables[languageShiftTable];
         for (int i = 0; i < sz; i++) {
             char c = s.charAt(i);
             if (c == GSM_EXTENDED_ESCAPE) {
@@ -784,6 +902,32 @@ public class GsmAlphabet {
         return count;
     }
 
+    /**
+     * Returns the count of 7-bit GSM alphabet characters needed to represent
+     * a single character using the specified language table and extension
+     * table, for callers that count a string as they go.
+     *
+     * @param c                  the character to examine
+     * @param languageTable      the 7 bit language table, or 0 for the default GSM alphabet
+     * @param languageShiftTable the 7 bit single shift language table, or 0 for the default
+     *                           GSM extension table
+     * @return 1 or 2 septets, 0 for the escape character which is skipped, or -1 if
+     * the character is unencodable
+     */
+    public static int countGsmSeptetsUsingTables(char c, int languageTable,
+                                                 int languageShiftTable) {
+        if (c == GSM_EXTENDED_ESCAPE) {
+            return 0;
+        }
+        if (sCharsToGsmTables[languageTable].get(c, -1) != -1) {
+            return 1;
+        }
+        if (sCharsToShiftTables[languageShiftTable].get(c, -1) != -1) {
+            return 2;
+        }
+        return -1;
+    }
+
     /**
      * Returns the count of 7-bit GSM alphabet characters
      * needed to represent this string, and the language table and
@@ -805,12 +949,10 @@ public class GsmAlphabet {
      */
     public static TextEncodingDetails
     countGsmSeptets(CharSequence s, boolean use7bitOnly) {
-        // Load enabled language tables from config.xml, including any MCC overlays
-        if (!sDisableCountryEncodingCheck) {
-            enableCountrySpecificEncodings();
-        }
+        // Read the enabled tables once; the snapshot never changes while we use it
+        EnabledTables enabled = sEnabledTables;
         // fast path for common case where no national language shift tables are enabled
-        if (sEnabledSingleShiftTables.length + sEnabledLockingShiftTables.length == 0) {
+        if (enabled.singleShiftTables.length + enabled.lockingShiftTables.length == 0) {
             TextEncodingDetails ted = new TextEncodingDetails();
             int septets = GsmAlphabet.countGsmSeptetsUsingTables(s, use7bitOnly, 0, 0);
             if (septets == -1) {
@@ -831,16 +973,16 @@ public class GsmAlphabet {
             return ted;
         }
 
-        int maxSingleShiftCode = sHighestEnabledSingleShiftCode;
+        int maxSingleShiftCode = enabled.highestSingleShiftCode;
         List<LanguagePairCount> lpcList = new ArrayList<LanguagePairCount>(
-                sEnabledLockingShiftTables.length + 1);
+                enabled.lockingShiftTables.length + 1);
 
         // Always add default GSM 7-bit alphabet table
-        lpcList.add(new LanguagePairCount(0));
-        for (int i : sEnabledLockingShiftTables) {
+        lpcList.add(new LanguagePairCount(0, enabled));
+        for (int i : enabled.lockingShiftTables) {
             // Avoid adding default table twice in case 0 is in the list of allowed tables
             if (i != 0 && !sLanguageTables[i].isEmpty()) {
-                lpcList.add(new LanguagePairCount(i));
+                lpcList.add(new LanguagePairCount(i, enabled));
             }
         }
 
@@ -897,28 +1039,10 @@ public class GsmAlphabet {
                 if (septets == -1) {
                     continue;
                 }
-                int udhLength;
-                if (lpc.languageCode != 0 && shiftTable != 0) {
-                    udhLength = UDH_SEPTET_COST_LENGTH + UDH_SEPTET_COST_TWO_SHIFT_TABLES;
-                } else if (lpc.languageCode != 0 || shiftTable != 0) {
-                    udhLength = UDH_SEPTET_COST_LENGTH + UDH_SEPTET_COST_ONE_SHIFT_TABLE;
-                } else {
-                    udhLength = 0;
-                }
-                int msgCount;
-                int septetsRemaining;
-                if (septets + udhLength > SmsConstants.MAX_USER_DATA_SEPTETS) {
-                    if (udhLength == 0) {
-                        udhLength = UDH_SEPTET_COST_LENGTH;
-                    }
-                    udhLength += UDH_SEPTET_COST_CONCATENATED_MESSAGE;
-                    int septetsPerMessage = SmsConstants.MAX_USER_DATA_SEPTETS - udhLength;
-                    msgCount = (septets + septetsPerMessage - 1) / septetsPerMessage;
-                    septetsRemaining = (msgCount * septetsPerMessage) - septets;
-                } else {
-                    msgCount = 1;
-                    septetsRemaining = SmsConstants.MAX_USER_DATA_SEPTETS - udhLength - septets;
-                }
+                TextEncodingDetails pair =
+                        getSeptetEncodingDetails(septets, lpc.languageCode, shiftTable);
+                int msgCount = pair.msgCount;
+                int septetsRemaining = pair.codeUnitsRemaining;
                 // for 7-bit only mode, use language pair with the least unencodable chars
                 int unencodableCount = lpc.unencodableCounts[shiftTable];
                 if (use7bitOnly && unencodableCount > minUnencodableCount) {
@@ -944,6 +1068,80 @@ public class GsmAlphabet {
         return ted;
     }
 
+    /**
+     * Size a message of a number of septets encoded with a language table
+     * pair, including the user data header the national tables and the
+     * concatenation need, the same way {@link #countGsmSeptets} does.
+     *
+     * @param septets            the number of septets of the text
+     * @param languageTable      the 7 bit character table used
+     * @param languageShiftTable the 7 bit shift table used
+     * @return the encoding details for the pair
+     */
+    public static TextEncodingDetails getSeptetEncodingDetails(int septets, int languageTable,
+            int languageShiftTable) {
+        int udhLength;
+        if (languageTable != 0 && languageShiftTable != 0) {
+            udhLength = UDH_SEPTET_COST_LENGTH + UDH_SEPTET_COST_TWO_SHIFT_TABLES;
+        } else if (languageTable != 0 || languageShiftTable != 0) {
+            udhLength = UDH_SEPTET_COST_LENGTH + UDH_SEPTET_COST_ONE_SHIFT_TABLE;
+        } else {
+            udhLength = 0;
+        }
+
+        TextEncodingDetails ted = new TextEncodingDetails();
+        ted.codeUnitSize = SmsConstants.ENCODING_7BIT;
+        ted.codeUnitCount = septets;
+        ted.languageTable = languageTable;
+        ted.languageShiftTable = languageShiftTable;
+        if (septets + udhLength > SmsConstants.MAX_USER_DATA_SEPTETS) {
+            if (udhLength == 0) {
+                udhLength = UDH_SEPTET_COST_LENGTH;
+            }
+            udhLength += UDH_SEPTET_COST_CONCATENATED_MESSAGE;
+            int septetsPerMessage = SmsConstants.MAX_USER_DATA_SEPTETS - udhLength;
+            ted.msgCount = (septets + septetsPerMessage - 1) / septetsPerMessage;
+            ted.codeUnitsRemaining = (ted.msgCount * septetsPerMessage) - septets;
+        } else {
+            ted.msgCount = 1;
+            ted.codeUnitsRemaining = SmsConstants.MAX_USER_DATA_SEPTETS - udhLength - septets;
+        }
+        return ted;
+    }
+
+    /**
+     * Return the language table pairs {@link #countGsmSeptets} chooses from,
+     * in the order it tries them, starting with the default alphabet and
+     * extension table. Pairs that are never the best choice are left out.
+     *
+     * @return the pairs as {languageTable, languageShiftTable}
+     */
+    public static int[][] getEnabledLanguagePairs() {
+        EnabledTables enabled = sEnabledTables;
+        List<int[]> pairs = new ArrayList<int[]>();
+        if (enabled.singleShiftTables.length + enabled.lockingShiftTables.length == 0) {
+            pairs.add(new int[] {0, 0});
+            return pairs.toArray(new int[pairs.size()][]);
+        }
+
+        List<Integer> languageTables = new ArrayList<Integer>();
+        languageTables.add(0);
+        for (int i : enabled.lockingShiftTables) {
+            if (i != 0 && !sLanguageTables[i].isEmpty()) {
+                languageTables.add(i);
+            }
+        }
+        for (int languageTable : languageTables) {
+            LanguagePairCount lpc = new LanguagePairCount(languageTable, enabled);
+            for (int shiftTable = 0; shiftTable < lpc.septetCounts.length; shiftTable++) {
+                if (lpc.septetCounts[shiftTable] != -1) {
+                    pairs.add(new int[] {languageTable, shiftTable});
+                }
+            }
+        }
+        return pairs.toArray(new int[pairs.size()][]);
+    }
+
     /**
      * Returns the index into <code>s</code> of the first character
      * after <code>limit</code> septets have been reached, starting at
@@ -964,8 +1162,8 @@ public class GsmAlphabet {
         int accumulator = 0;
         int size = s.length();
 
-        SparseIntArray charToLangTable = sCharsToGsmTables[langTable];
-        SparseIntArray charToLangShiftTable = sCharsToShiftTables[langShiftTable];
+        CharTable charToLangTable = sCharsToGsmTables[langTable];
+        CharTable charToLangShiftTable = sCharsToShiftTables[langShiftTable];
         for (int i = start; i < size; i++) {
             int encodedSeptet = charToLangTable.get(s.charAt(i), -1);
             if (encodedSeptet == -1) {
@@ -994,14 +1192,7 @@ public class GsmAlphabet {
      * @param tables the new list of enabled single shift tables
      */
     static synchronized void setEnabledSingleShiftTables(int[] tables) {
-        sEnabledSingleShiftTables = tables;
-        sDisableCountryEncodingCheck = true;
-
-        if (tables.length > 0) {
-            sHighestEnabledSingleShiftCode = tables[tables.length - 1];
-        } else {
-            sHighestEnabledSingleShiftCode = 0;
-        }
+        sEnabledTables = new EnabledTables(tables, sEnabledTables.lockingShiftTables);
     }
 
     /**
@@ -1012,8 +1203,46 @@ public class GsmAlphabet {
      * @param tables the new list of enabled locking shift tables
      */
     static synchronized void setEnabledLockingShiftTables(int[] tables) {
-        sEnabledLockingShiftTables = tables;
-        sDisableCountryEncodingCheck = true;
+        sEnabledTables = new EnabledTables(sEnabledTables.singleShiftTables, tables);
+    }
+
+    /**
+     * Replace the enabled national language tables used by
+     * {@link #countGsmSeptets(CharSequence, boolean)}, for example when the
+     * active MCC/MNC changes. Both lists are copied and take effect together,
+     * so concurrent counts see either the old or the new configuration.
+     * The lists may be in any order. Duplicates, 0 (the default tables are
+     * always enabled) and codes without a table defined are ignored.
+     *
+     * @param lockingShiftTables the new list of enabled locking shift tables
+     * @param singleShiftTables  the new list of enabled single shift tables
+     * @throws IllegalArgumentException if a list is null or has a code
+     *         outside 0 to {@link #getLanguageTableCount()} - 1
+     */
+    public static synchronized void setEnabledLanguageTables(int[] lockingShiftTables,
+                                                             int[] singleShiftTables) {
+        checkLanguageTables(lockingShiftTables, sLanguageTables.length);
+        checkLanguageTables(singleShiftTables, sLanguageShiftTables.length);
+        sEnabledTables = new EnabledTables(singleShiftTables, lockingShiftTables);
+    }
+
+    private static void checkLanguageTables(int[] tables, int count) {
+        if (tables == null) {
+            throw new IllegalArgumentException("tables must not be null");
+        }
+        for (int table : tables) {
+            if (table < 0 || table >= count) {
+                throw new IllegalArgumentException("Invalid language table " + table);
+            }
+        }
+    }
+
+    /**
+     * Go back to the country-specific national language tables that are
+     * enabled by default, the ones the platform enables.
+     */
+    public static synchronized void resetEnabledLanguageTables() {
+        sEnabledTables = getCountrySpecificEncodings();
     }
 
     /**
@@ -1023,8 +1252,8 @@ public class GsmAlphabet {
      *
      * @return the list of enabled single shift tables
      */
-    static synchronized int[] getEnabledSingleShiftTables() {
-        return sEnabledSingleShiftTables;
+    static int[] getEnabledSingleShiftTables() {
+        return sEnabledTables.singleShiftTables;
     }
 
     /**
@@ -1034,57 +1263,194 @@ public class GsmAlphabet {
      *
      * @return the list of enabled locking shift tables
      */
-    static synchronized int[] getEnabledLockingShiftTables() {
-        return sEnabledLockingShiftTables;
+    static int[] getEnabledLockingShiftTables() {
+        return sEnabledTables.lockingShiftTables;
     }
 
     /**
-     * Enable country-specific language tables from MCC-specific overlays.
+     * Return whether any national language table is enabled, in which case
+     * {@link #countGsmSeptets(CharSequence, boolean)} can pick a different
+     * encoding than the default GSM alphabet and extension table.
      *
-     * @context the context to use to get the TelephonyManager
+     * @return true if a national locking or single shift table is enabled
      */
-    private static void enableCountrySpecificEncodings() {
-        // See comments in frameworks/base/core/res/res/values/config.xml for allowed values
-        sEnabledSingleShiftTables = new int[1];
-        sEnabledLockingShiftTables = new int[1];
+    public static boolean hasEnabledNationalTables() {
+        return sEnabledTables.hasNationalTables;
+    }
 
-        if (sEnabledSingleShiftTables.length > 0) {
-            sHighestEnabledSingleShiftCode =
-                    sEnabledSingleShiftTables[sEnabledSingleShiftTables.length - 1];
-        } else {
-            sHighestEnabledSingleShiftCode = 0;
-        }
+    /**
+     * Return a copy of the enabled national language locking shift tables,
+     * the ones {@link #countGsmSeptets(CharSequence, boolean)} chooses from.
+     *
+     * @return the list of enabled locking shift tables, in ascending order
+     */
+    public static int[] getEnabledLanguageTables() {
+        return sEnabledTables.lockingShiftTables.clone();
     }
 
     /**
-     * Reverse mapping from Unicode characters to indexes into language tables.
+     * Return a copy of the enabled national language single shift tables,
+     * the ones {@link #countGsmSeptets(CharSequence, boolean)} chooses from.
+     *
+     * @return the list of enabled single shift tables, in ascending order
+     */
+    public static int[] getEnabledLanguageShiftTables() {
+        return sEnabledTables.singleShiftTables.clone();
+    }
+
+    /**
+     * Return the number of national language table codes, including the
+     * default GSM alphabet at code 0. Language and single shift table codes
+     * are always below this number, but some codes have no table defined.
+     *
+     * @return the number of language table codes
      */
-    private static final SparseIntArray[] sCharsToGsmTables;
+    public static int getLanguageTableCount() {
+        return sLanguageTables.length;
+    }
 
     /**
-     * Reverse mapping from Unicode characters to indexes into language shift tables.
+     * Return whether a national language locking shift table is defined
+     * for a language code.
+     *
+     * @param languageTable the language table code
+     * @return true if the table has characters defined
+     */
+    public static boolean hasLanguageTable(int languageTable) {
+        return languageTable >= 0 && languageTable < sLanguageTables.length
+                && !sLanguageTables[languageTable].isEmpty();
+    }
+
+    /**
+     * Return whether a national language single shift table is defined
+     * for a language code.
+     *
+     * @param languageShiftTable the language shift table code
+     * @return true if the table has characters defined
+     */
+    public static boolean hasLanguageShiftTable(int languageShiftTable) {
+        return languageShiftTable >= 0 && languageShiftTable < sLanguageShiftTables.length
+                && !sLanguageShiftTables[languageShiftTable].isEmpty();
+    }
+
+    /**
+     * Build the country-specific language tables from MCC-specific overlays.
+     * These are the tables the platform enables, so counts match what
+     * SmsManager.divideMessage sends. Only the default tables are enabled
+     * when the platform configuration can't be read.
+     *
+     * @return the snapshot of enabled tables
+     */
+    private static EnabledTables getCountrySpecificEncodings() {
+        // See comments in frameworks/base/core/res/res/values/config.xml for allowed values
+        int[] singleShiftTables = getPlatformTables("config_sms_enabled_single_shift_tables");
+        int[] lockingShiftTables = getPlatformTables("config_sms_enabled_locking_shift_tables");
+        if (singleShiftTables == null || lockingShiftTables == null) {
+            return new EnabledTables(new int[1], new int[1]);
+        }
+        return new EnabledTables(singleShiftTables, lockingShiftTables);
+    }
+
+    /**
+     * Read a list of enabled tables from the platform resources.
+     *
+     * @param name the name of the integer array resource
+     * @return the list of tables, null if it can't be read
      */
-    private static final SparseIntArray[] sCharsToShiftTables;
+    private static int[] getPlatformTables(String name) {
+        try {
+            Resources r = Resources.getSystem();
+            int id = r.getIdentifier(name, "array", "android");
+            return (id != 0) ? r.getIntArray(id) : null;
+        } catch (RuntimeException e) {
+            // Not running on a device, for example in the benchmarks.
+            return null;
+        }
+    }
 
     /**
-     * OEM configured list of enabled national language single shift tables for encoding.
+     * Reverse mapping from Unicode characters to indexes into language tables.
      */
-    private static int[] sEnabledSingleShiftTables;
+    private static final CharTable[] sCharsToGsmTables;
 
     /**
-     * OEM configured list of enabled national language locking shift tables for encoding.
+     * Reverse mapping from Unicode characters to indexes into language shift tables.
      */
-    private static int[] sEnabledLockingShiftTables;
+    private static final CharTable[] sCharsToShiftTables;
 
     /**
-     * Highest language code to include in array of single shift counters.
+     * OEM configured national language tables enabled for encoding. Replaced
+     * as a whole, never modified, so readers need no locking.
      */
-    private static int sHighestEnabledSingleShiftCode;
+    private static volatile EnabledTables sEnabledTables;
 
     /**
-     * Flag to bypass check for country-specific overlays (for test cases only).
+     * Immutable snapshot of the enabled national language tables.
      */
-    private static boolean sDisableCountryEncodingCheck = false;
+    private static final class EnabledTables {
+        /**
+         * Enabled national language single shift tables, in ascending order
+         * without duplicates, 0 or undefined tables.
+         */
+        final int[] singleShiftTables;
+
+        /**
+         * Enabled national language locking shift tables, in ascending order
+         * without duplicates, 0 or undefined tables.
+         */
+        final int[] lockingShiftTables;
+
+        /**
+         * Highest language code to include in array of single shift counters.
+         */
+        final int highestSingleShiftCode;
+
+        /**
+         * Whether any table other than the default ones is enabled.
+         */
+        final boolean hasNationalTables;
+
+        EnabledTables(int[] singleShiftTables, int[] lockingShiftTables) {
+            // LanguagePairCount walks the single shift tables in order, anything
+            // out of order would disable the tables that follow it
+            this.singleShiftTables = normalize(singleShiftTables, true);
+            this.lockingShiftTables = normalize(lockingShiftTables, false);
+
+            if (this.singleShiftTables.length > 0) {
+                highestSingleShiftCode =
+                        this.singleShiftTables[this.singleShiftTables.length - 1];
+            } else {
+                highestSingleShiftCode = 0;
+            }
+
+            hasNationalTables =
+                    this.singleShiftTables.length + this.lockingShiftTables.length > 0;
+        }
+
+        /**
+         * Sort the tables and drop duplicates, 0 and codes without a table.
+         */
+        private static int[] normalize(int[] tables, boolean shift) {
+            boolean[] enabled = new boolean[shift ? sLanguageShiftTables.length
+                    : sLanguageTables.length];
+            int count = 0;
+            for (int table : tables) {
+                boolean defined = shift ? hasLanguageShiftTable(table) : hasLanguageTable(table);
+                if (table != 0 && defined && !enabled[table]) {
+                    enabled[table] = true;
+                    count++;
+                }
+            }
+
+            int[] normalized = new int[count];
+            for (int table = 0, i = 0; i < count; table++) {
+                if (enabled[table]) {
+                    normalized[i++] = table;
+                }
+            }
+            return normalized;
+        }
+    }
 
     /**
      * Septet counter for a specific locking shift table and all of
@@ -1095,15 +1461,15 @@ public class GsmAlphabet {
         final int[] septetCounts;
         final int[] unencodableCounts;
 
-        LanguagePairCount(int code) {
+        LanguagePairCount(int code, EnabledTables enabled) {
             this.languageCode = code;
-            int maxSingleShiftCode = sHighestEnabledSingleShiftCode;
+            int maxSingleShiftCode = enabled.highestSingleShiftCode;
             septetCounts = new int[maxSingleShiftCode + 1];
             unencodableCounts = new int[maxSingleShiftCode + 1];
             // set counters for disabled single shift tables to -1
             // (GSM default extension table index 0 is always enabled)
             for (int i = 1, tableOffset = 0; i <= maxSingleShiftCode; i++) {
-                if (sEnabledSingleShiftTables[tableOffset] == i) {
+                if (enabled.singleShiftTables[tableOffset] == i) {
                     tableOffset++;
                 } else {
                     septetCounts[i] = -1;   // disabled
@@ -1120,6 +1486,49 @@ public class GsmAlphabet {
         }
     }
 
+    /**
+     * Reverse mapping from Unicode characters to 7-bit table indexes with
+     * constant time lookups. Characters are split by their high byte into
+     * blocks of 256 entries; blocks without any mapped character all share
+     * one empty block, so a table only costs a few hundred bytes per
+     * Unicode block it actually uses.
+     */
+    private static final class CharTable {
+        private static final byte[] EMPTY_BLOCK = new byte[256];
+
+        static {
+            java.util.Arrays.fill(EMPTY_BLOCK, (byte) -1);
+        }
+
+        private final byte[][] mBlocks = new byte[256][];
+
+        CharTable() {
+            java.util.Arrays.fill(mBlocks, EMPTY_BLOCK);
+        }
+
+        /**
+         * Map a character to a table index. A later mapping for the same
+         * character replaces the earlier one.
+         */
+        void put(char c, int value) {
+            byte[] block = mBlocks[c >>> 8];
+            if (block == EMPTY_BLOCK) {
+                block = EMPTY_BLOCK.clone();
+                mBlocks[c >>> 8] = block;
+            }
+            block[c & 0xff] = (byte) value;
+        }
+
+        /**
+         * Return the table index for a character, or valueIfKeyNotFound if
+         * the character is not in the table.
+         */
+        int get(char c, int valueIfKeyNotFound) {
+            int value = mBlocks[c >>> 8][c & 0xff];
+            return value < 0 ? valueIfKeyNotFound : value;
+        }
+    }
+
     /**
      * GSM default 7 bit alphabet plus national language locking shift character tables.
      * Comment lines above strings indicate the lower four bits of the table position.
@@ -1450,7 +1859,7 @@ public class GsmAlphabet {
     };
 
     static {
-        enableCountrySpecificEncodings();
+        sEnabledTables = getCountrySpecificEncodings();
         int numTables = sLanguageTables.length;
         int numShiftTables = sLanguageShiftTables.length;
         if (numTables != numShiftTables) {
@@ -1458,7 +1867,7 @@ public class GsmAlphabet {
                     " != shift tables array length " + numShiftTables);
         }
 
-        sCharsToGsmTables = new SparseIntArray[numTables];
+        sCharsToGsmTables = new CharTable[numTables];
         for (int i = 0; i < numTables; i++) {
             String table = sLanguageTables[i];
 
@@ -1468,7 +1877,7 @@ public class GsmAlphabet {
                         " length " + tableLen + " (expected 128 or 0)");
             }
 
-            SparseIntArray charToGsmTable = new SparseIntArray(tableLen);
+            CharTable charToGsmTable = new CharTable();
             sCharsToGsmTables[i] = charToGsmTable;
             for (int j = 0; j < tableLen; j++) {
                 char c = table.charAt(j);
@@ -1476,7 +1885,7 @@ public class GsmAlphabet {
             }
         }
 
-        sCharsToShiftTables = new SparseIntArray[numTables];
+        sCharsToShiftTables = new CharTable[numTables];
         for (int i = 0; i < numShiftTables; i++) {
             String shiftTable = sLanguageShiftTables[i];
 
@@ -1486,7 +1895,7 @@ public class GsmAlphabet {
                         " length " + shiftTableLen + " (expected 128 or 0)");
             }
 
-            SparseIntArray charToShiftTable = new SparseIntArray(shiftTableLen);
+            CharTable charToShiftTable = new CharTable();
             sCharsToShiftTables[i] = charToShiftTable;
             for (int j = 0; j < shiftTableLen; j++) {
                 char c = shiftTable.charAt(j);
@@ -18,7 +18,9 @@
 package com.android.mms.transaction;
 
 import java.io.DataInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.SocketException;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -44,6 +46,8 @@ import android.util.Config;
 import android.util.Log;
 
 import com.android.mms.MmsConfig;
+import com.google.android.mms.pdu_alt.GenericPdu;
+import com.google.android.mms.pdu_alt.PduParser;
 
 public class HttpUtils {
     private static final String TAG = "android-smsmms_transaction";
@@ -119,81 +123,12 @@ public class HttpUtils {
                     HttpHost.DEFAULT_SCHEME_NAME);
 
             client = createHttpClient(context);
-            HttpRequest req = null;
-            switch(method) {
-                case HTTP_POST_METHOD:
-                    ProgressCallbackEntity entity = new ProgressCallbackEntity(
-                                                        context, token, pdu);
-                    // Set request content type.
-                    entity.setContentType("application/vnd.wap.mms-message");
-
-                    HttpPost post = new HttpPost(url);
-                    post.setEntity(entity);
-                    req = post;
-                    break;
-                case HTTP_GET_METHOD:
-                    req = new HttpGet(url);
-                    break;
-                default:
-                    Log.e(TAG, "Unknown HTTP method: " + method
-                            + ". Must be one of POST[" + HTTP_POST_METHOD
-                            + "] or GET[" + HTTP_GET_METHOD + "].");
-                    return null;
+            HttpRequest req = createRequest(context, client, token, url, pdu, method,
+                    isProxySet, proxyHost, proxyPort);
+            if (req == null) {
+                return null;
             }
 
-            // Set route parameters for the request.
-            HttpParams params = client.getParams();
-            if (isProxySet) {
-                ConnRouteParams.setDefaultProxy(
-                        params, new HttpHost(proxyHost, proxyPort));
-            }
-            req.setParams(params);
-
-            // Set necessary HTTP headers for MMS transmission.
-            req.addHeader(HDR_KEY_ACCEPT, HDR_VALUE_ACCEPT);
-            {
-                String xWapProfileTagName = MmsConfig.getUaProfTagName();
-                String xWapProfileUrl = MmsConfig.getUaProfUrl();
-
-                if (xWapProfileUrl != null) {
-                        Log.d(TAG,
-                                "[HttpUtils] httpConn: xWapProfUrl=" + xWapProfileUrl);
-                    req.addHeader(xWapProfileTagName, xWapProfileUrl);
-                }
-            }
-
-            // Extra http parameters. Split by '|' to get a list of value pairs.
-            // Separate each pair by the first occurrence of ':' to obtain a name and
-            // value. Replace the occurrence of the string returned by
-            // MmsConfig.getHttpParamsLine1Key() with the users telephone number inside
-            // the value.
-            String extraHttpParams = MmsConfig.getHttpParams();
-
-            if (extraHttpParams != null) {
-                String line1Number = ((TelephonyManager)context
-                        .getSystemService(Context.TELEPHONY_SERVICE))
-                        .getLine1Number();
-                String line1Key = MmsConfig.getHttpParamsLine1Key();
-                String paramList[] = extraHttpParams.split("\\|");
-
-                for (String paramPair : paramList) {
-                    String splitPair[] = paramPair.split(":", 2);
-
-                    if (splitPair.length == 2) {
-                        String name = splitPair[0].trim();
-                        String value = splitPair[1].trim();
-
-                        if (line1Key != null) {
-                            value = value.replace(line1Key, line1Number);
-                        }
-                        if (!TextUtils.isEmpty(name) && !TextUtils.isEmpty(value)) {
-                            req.addHeader(name, value);
-                        }
-                    }
-                }
-            }
-            req.addHeader(HDR_KEY_ACCEPT_LANGUAGE, HDR_VALUE_ACCEPT_LANGUAGE);
-
             HttpResponse response = client.execute(target, req);
             StatusLine status = response.getStatusLine();
             if (status.getStatusCode() != 200) { // HTTP 200 is success.
@@ -284,6 +219,224 @@ public class HttpUtils {
         return null;
     }
 
+    /**
+     * Retrieve a pdu through HTTP GET and parse it while it is downloaded.
+     * Unlike httpConnection, the response is never held in memory as a
+     * whole: parsing overlaps the transfer and the data of large parts can
+     * be written out as it arrives.
+     *
+     * @param token The token to identify the sending progress.
+     * @param url The URL of the pdu, usually the Content-Location of a
+     *         notification.
+     * @param partDataSink Where the data of parts is written to while it is
+     *         read, for example a FilePartDataSink. Null to keep every part
+     *         in memory.
+     * @return The parsed pdu, or null if the response is empty or is not
+     *         a valid pdu.
+     * @throws IOException if any error occurred on network interface, even
+     *         after part of the pdu was parsed, if the response is larger
+     *         than MmsConfig.getMaxMessageSize() or an HTTP error
+     *         code(&gt;=400) returned from the server.
+     */
+    public static GenericPdu httpRetrievePdu(Context context, long token,
+            String url, boolean isProxySet, String proxyHost, int proxyPort,
+            PduParser.PartDataSink partDataSink) throws IOException {
+        if (url == null) {
+            throw new IllegalArgumentException("URL must not be null.");
+        }
+
+        AndroidHttpClient client = null;
+
+        try {
+            URI hostUrl = new URI(url);
+            HttpHost target = new HttpHost(
+                    hostUrl.getHost(), hostUrl.getPort(),
+                    HttpHost.DEFAULT_SCHEME_NAME);
+
+            client = createHttpClient(context);
+            HttpRequest req = createRequest(context, client, token, url, null, HTTP_GET_METHOD,
+                    isProxySet, proxyHost, proxyPort);
+
+            HttpResponse response = client.execute(target, req);
+            StatusLine status = response.getStatusLine();
+            if (status.getStatusCode() != 200) { // HTTP 200 is success.
+                throw new IOException("HTTP error: " + status.getReasonPhrase());
+            }
+
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                return null;
+            }
+
+            InputStream in = new SizeLimitedInputStream(entity.getContent(),
+                    MmsConfig.getMaxMessageSize());
+            try {
+                PduParser parser = new PduParser(in, partDataSink);
+                GenericPdu pdu = parser.parse();
+                if (parser.getIOException() != null) {
+                    // The pdu was cut short, not malformed.
+                    throw parser.getIOException();
+                }
+                return pdu;
+            } finally {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Error closing input stream: " + e.getMessage());
+                }
+                entity.consumeContent();
+            }
+        } catch (URISyntaxException e) {
+            handleHttpConnectionException(e, url);
+        } catch (IllegalStateException e) {
+            handleHttpConnectionException(e, url);
+        } catch (IllegalArgumentException e) {
+            handleHttpConnectionException(e, url);
+        } catch (SocketException e) {
+            handleHttpConnectionException(e, url);
+        } catch (Exception e) {
+            handleHttpConnectionException(e, url);
+        }
+        finally {
+            if (client != null) {
+                client.close();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Fails reading once more than a limit has been read, the way
+     * httpConnection caps chunked responses, so a response without a
+     * length can't fill the memory or the disk.
+     */
+    private static class SizeLimitedInputStream extends FilterInputStream {
+        private final int mLimit;
+        private int mCount = 0;
+
+        SizeLimitedInputStream(InputStream in, int limit) {
+            super(in);
+            mLimit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count((int) Math.min(skipped, Integer.MAX_VALUE));
+            return skipped;
+        }
+
+        private void count(int read) throws IOException {
+            mCount += read;
+            if ((mCount > mLimit) || (mCount < 0)) {
+                throw new IOException("Response is larger than " + mLimit + " bytes");
+            }
+        }
+    }
+
+    /**
+     * Build a request carrying the headers the MMSC expects.
+     *
+     * @return the request, or null if the method is unknown
+     */
+    private static HttpRequest createRequest(Context context, AndroidHttpClient client,
+            long token, String url, byte[] pdu, int method, boolean isProxySet,
+            String proxyHost, int proxyPort) {
+        HttpRequest req = null;
+        switch(method) {
+            case HTTP_POST_METHOD:
+                ProgressCallbackEntity entity = new ProgressCallbackEntity(
+                                                    context, token, pdu);
+                // Set request content type.
+                entity.setContentType("application/vnd.wap.mms-message");
+
+                HttpPost post = new HttpPost(url);
+                post.setEntity(entity);
+                req = post;
+                break;
+            case HTTP_GET_METHOD:
+                req = new HttpGet(url);
+                break;
+            default:
+                Log.e(TAG, "Unknown HTTP method: " + method
+                        + ". Must be one of POST[" + HTTP_POST_METHOD
+                        + "] or GET[" + HTTP_GET_METHOD + "].");
+                return null;
+        }
+
+        // Set route parameters for the request.
+        HttpParams params = client.getParams();
+        if (isProxySet) {
+            ConnRouteParams.setDefaultProxy(
+                    params, new HttpHost(proxyHost, proxyPort));
+        }
+        req.setParams(params);
+
+        // Set necessary HTTP headers for MMS transmission.
+        req.addHeader(HDR_KEY_ACCEPT, HDR_VALUE_ACCEPT);
+        {
+            String xWapProfileTagName = MmsConfig.getUaProfTagName();
+            String xWapProfileUrl = MmsConfig.getUaProfUrl();
+
+            if (xWapProfileUrl != null) {
+                    Log.d(TAG,
+                            "[HttpUtils] httpConn: xWapProfUrl=" + xWapProfileUrl);
+                req.addHeader(xWapProfileTagName, xWapProfileUrl);
+            }
+        }
+
+        // Extra http parameters. Split by '|' to get a list of value pairs.
+        // Separate each pair by the first occurrence of ':' to obtain a name and
+        // value. Replace the occurrence of the string returned by
+        // MmsConfig.getHttpParamsLine1Key() with the users telephone number inside
+        // the value.
+        String extraHttpParams = MmsConfig.getHttpParams();
+
+        if (extraHttpParams != null) {
+            String line1Number = ((TelephonyManager)context
+                    .getSystemService(Context.TELEPHONY_SERVICE))
+                    .getLine1Number();
+            String line1Key = MmsConfig.getHttpParamsLine1Key();
+            String paramList[] = extraHttpParams.split("\\|");
+
+            for (String paramPair : paramList) {
+                String splitPair[] = paramPair.split(":", 2);
+
+                if (splitPair.length == 2) {
+                    String name = splitPair[0].trim();
+                    String value = splitPair[1].trim();
+
+                    if (line1Key != null) {
+                        value = value.replace(line1Key, line1Number);
+                    }
+                    if (!TextUtils.isEmpty(name) && !TextUtils.isEmpty(value)) {
+                        req.addHeader(name, value);
+                    }
+                }
+            }
+        }
+        req.addHeader(HDR_KEY_ACCEPT_LANGUAGE, HDR_VALUE_ACCEPT_LANGUAGE);
+        return req;
+    }
+
     private static void handleHttpConnectionException(Exception exception, String url)
             throws IOException {
         // Inner exception should be logged to make life easier.
@@ -17,8 +17,14 @@
 
 package com.android.mms.transaction;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.provider.Telephony;
 import android.text.TextUtils;
 import android.util.Log;
@@ -30,6 +36,8 @@ import com.google.android.mms.util_alt.SqliteWrapper;
 //import android.net.NetworkUtils;
 import com.klinker.android.send_message.BuildConfig;
 
+import java.util.HashMap;
+
 /**
  * Container of transaction settings. Instances of this class are contained
  * within Transaction instances to allow overriding of the default APN
@@ -57,6 +65,113 @@ public class TransactionSettings {
     static final String APN_TYPE_ALL = "*";
     static final String APN_TYPE_MMS = "mms";
 
+    // TelephonyIntents.ACTION_DEFAULT_DATA_SUBSCRIPTION_CHANGED, sent on
+    // multi sim devices when data moves to another subscription.
+    private static final String ACTION_DEFAULT_DATA_SUBSCRIPTION_CHANGED =
+            "android.intent.action.ACTION_DEFAULT_DATA_SUBSCRIPTION_CHANGED";
+
+    // Resolved settings per APN name, dropped whenever the carriers table,
+    // the default data subscription or the default data APN changes.
+    private static final HashMap<String, TransactionSettings> sCache =
+            new HashMap<String, TransactionSettings>();
+    // Bumped on every invalidation so a lookup that raced with one is not cached.
+    private static int sCacheGeneration;
+    private static ContentObserver sApnObserver;
+    private static BroadcastReceiver sConnectivityReceiver;
+    // APN of the last connected default mobile data network.
+    private static String sDataApn;
+
+    /**
+     * Returns the settings for the given APN, only querying the carriers
+     * table the first time an APN is seen or after the table has changed.
+     *
+     * @param context The context of the MMS Client
+     * @param apnName The name of the APN, may be null for the current one
+     */
+    public static TransactionSettings getCached(Context context, String apnName) {
+        String key = apnName != null ? apnName.trim() : "";
+        int generation;
+
+        synchronized (sCache) {
+            if (sApnObserver == null) {
+                sApnObserver = new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        invalidateCache();
+                    }
+                };
+                context.getApplicationContext().getContentResolver().registerContentObserver(
+                        Telephony.Carriers.CONTENT_URI, true, sApnObserver);
+            }
+
+            if (sConnectivityReceiver == null) {
+                sConnectivityReceiver = new BroadcastReceiver() {
+                    @Override
+                    public void onReceive(Context context, Intent intent) {
+                        if (ACTION_DEFAULT_DATA_SUBSCRIPTION_CHANGED.equals(intent.getAction())) {
+                            invalidateCache();
+                        } else {
+                            onConnectivityChanged((NetworkInfo) intent.getParcelableExtra(
+                                    ConnectivityManager.EXTRA_NETWORK_INFO));
+                        }
+                    }
+                };
+                IntentFilter filter = new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION);
+                filter.addAction(ACTION_DEFAULT_DATA_SUBSCRIPTION_CHANGED);
+                context.getApplicationContext().registerReceiver(sConnectivityReceiver, filter);
+            }
+
+            TransactionSettings settings = sCache.get(key);
+            if (settings != null) {
+                return settings;
+            }
+            generation = sCacheGeneration;
+        }
+
+        TransactionSettings settings = new TransactionSettings(context, apnName);
+
+        synchronized (sCache) {
+            // Only cache a complete lookup so a missing APN is looked up again,
+            // and drop one that was running while the cache got invalidated.
+            if (!TextUtils.isEmpty(settings.getMmscUrl()) && generation == sCacheGeneration) {
+                sCache.put(key, settings);
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Drops the cache when the default mobile data network comes up on a
+     * different APN. Bringing up the MMS APN for a send, wifi changes and
+     * the data network going down do not change which APN is current.
+     */
+    private static void onConnectivityChanged(NetworkInfo info) {
+        if (info == null || info.getType() != ConnectivityManager.TYPE_MOBILE
+                || !info.isConnected()) {
+            return;
+        }
+
+        String apn = info.getExtraInfo();
+        synchronized (sCache) {
+            boolean changed = sDataApn != null && !TextUtils.equals(sDataApn, apn);
+            sDataApn = apn;
+            if (!changed) {
+                return;
+            }
+        }
+        invalidateCache();
+    }
+
+    /**
+     * Drops every cached APN lookup, e.g. when the default data APN changes.
+     */
+    public static void invalidateCache() {
+        synchronized (sCache) {
+            sCache.clear();
+            sCacheGeneration++;
+        }
+    }
+
     /**
      * Constructor that uses the default settings of the MMS Client.
      *
@@ -34,7 +34,7 @@ public class Base64 {
     static final int BASELENGTH = 255;
 
     // Create arrays to hold the base64 characters
-    private static byte[] base64Alphabet = new byte[BASELENGTH];
+    static final byte[] base64Alphabet = new byte[BASELENGTH];
 
     // Populating the character arrays
     static {
@@ -56,7 +56,9 @@ public class Base64 {
     }
 
     /**
-     * Decodes Base64 data into octects
+     * Decodes Base64 data into octects. Padding ends the quadruple it is in,
+     * and an incomplete quadruple at the end of the data is ignored, the same
+     * as {@link Base64InputStream}.
      *
      * @param base64Data Byte array containing Base64 data
      * @return Array containing decoded data.
@@ -65,30 +67,12 @@ public class Base64 {
         // RFC 2045 requires that we discard ALL non-Base64 characters
         base64Data = discardNonBase64(base64Data);
 
-        // handle the edge case, so we don't have to worry about it later
-        if (base64Data.length == 0) {
-            return new byte[0];
-        }
-
         int numberQuadruple = base64Data.length / FOURBYTE;
-        byte decodedData[] = null;
+        byte decodedData[] = new byte[numberQuadruple * 3];
         byte b1 = 0, b2 = 0, b3 = 0, b4 = 0, marker0 = 0, marker1 = 0;
 
-        // Throw away anything not in base64Data
-
         int encodedIndex = 0;
         int dataIndex = 0;
-        {
-            // this sizes the output array properly - rlw
-            int lastData = base64Data.length;
-            // ignore the '=' padding
-            while (base64Data[lastData - 1] == PAD) {
-                if (--lastData == 0) {
-                    return new byte[0];
-                }
-            }
-            decodedData = new byte[lastData - numberQuadruple];
-        }
 
         for (int i = 0; i < numberQuadruple; i++) {
             dataIndex = i * 4;
@@ -103,24 +87,30 @@ public class Base64 {
                 b3 = base64Alphabet[marker0];
                 b4 = base64Alphabet[marker1];
 
-                decodedData[encodedIndex] = (byte) (b1 << 2 | b2 >> 4);
-                decodedData[encodedIndex + 1] =
+                decodedData[encodedIndex++] = (byte) (b1 << 2 | b2 >> 4);
+                decodedData[encodedIndex++] =
                     (byte) (((b2 & 0xf) << 4) | ((b3 >> 2) & 0xf));
-                decodedData[encodedIndex + 2] = (byte) (b3 << 6 | b4);
+                decodedData[encodedIndex++] = (byte) (b3 << 6 | b4);
             } else if (marker0 == PAD) {
                 //Two PAD e.g. 3c[Pad][Pad]
-                decodedData[encodedIndex] = (byte) (b1 << 2 | b2 >> 4);
-            } else if (marker1 == PAD) {
+                decodedData[encodedIndex++] = (byte) (b1 << 2 | b2 >> 4);
+            } else {
                 //One PAD e.g. 3cQ[Pad]
                 b3 = base64Alphabet[marker0];
 
-                decodedData[encodedIndex] = (byte) (b1 << 2 | b2 >> 4);
-                decodedData[encodedIndex + 1] =
+                decodedData[encodedIndex++] = (byte) (b1 << 2 | b2 >> 4);
+                decodedData[encodedIndex++] =
                     (byte) (((b2 & 0xf) << 4) | ((b3 >> 2) & 0xf));
             }
-            encodedIndex += 3;
         }
-        return decodedData;
+
+        // padding in the middle of the data leaves the array longer than what was decoded
+        if (encodedIndex == decodedData.length) {
+            return decodedData;
+        }
+        byte trimmedData[] = new byte[encodedIndex];
+        System.arraycopy(decodedData, 0, trimmedData, 0, encodedIndex);
+        return trimmedData;
     }
 
     /**
@@ -132,7 +122,7 @@ public class Base64 {
     private static boolean isBase64(byte octect) {
         if (octect == PAD) {
             return true;
-        } else if (base64Alphabet[octect] == -1) {
+        } else if ((octect < 0) || (base64Alphabet[octect] == -1)) {
             return false;
         } else {
             return true;
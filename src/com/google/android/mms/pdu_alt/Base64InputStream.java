@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2007-2008 Esmertec AG.
+ * Copyright (C) 2007-2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu_alt;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes Base64 data while it is read, the streaming counterpart of
+ * {@link Base64#decodeBase64(byte[])}, and returns the same octets for the
+ * same data. Characters outside of the base64 alphabet are discarded as
+ * RFC 2045 requires, and an incomplete quadruple at the end of the data is
+ * ignored.
+ */
+public class Base64InputStream extends FilterInputStream {
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * Encoded data read ahead from the underlying stream.
+     */
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mBufferPos = 0;
+    private int mBufferCount = 0;
+
+    /**
+     * The current quadruple, and the octets decoded from it.
+     */
+    private final int[] mQuadruple = new int[Base64.FOURBYTE];
+    private final byte[] mDecoded = new byte[3];
+    private int mDecodedPos = 0;
+    private int mDecodedCount = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param in the Base64 data
+     */
+    public Base64InputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if ((mDecodedPos == mDecodedCount) && !decodeQuadruple()) {
+            return -1;
+        }
+        return mDecoded[mDecodedPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if ((off < 0) || (len < 0) || (len > b.length - off)) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        int read = 0;
+        while (read < len) {
+            if ((mDecodedPos == mDecodedCount) && !decodeQuadruple()) {
+                break;
+            }
+            int count = Math.min(len - read, mDecodedCount - mDecodedPos);
+            System.arraycopy(mDecoded, mDecodedPos, b, off + read, count);
+            mDecodedPos += count;
+            read += count;
+        }
+        return (read == 0) ? -1 : read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while ((skipped < n) && (read() != -1)) {
+            skipped++;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return mDecodedCount - mDecodedPos;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readlimit) {
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Decode the next quadruple into mDecoded.
+     *
+     * @return false at the end of the data
+     */
+    private boolean decodeQuadruple() throws IOException {
+        int count = 0;
+        while (count < Base64.FOURBYTE) {
+            if ((mBufferPos == mBufferCount) && !fill()) {
+                return false;
+            }
+            int octet = mBuffer[mBufferPos++] & 0xFF;
+            if ((octet == Base64.PAD) || ((octet < Base64.BASELENGTH)
+                    && (Base64.base64Alphabet[octet] != -1))) {
+                mQuadruple[count++] = octet;
+            }
+        }
+
+        int b1 = Base64.base64Alphabet[mQuadruple[0]];
+        int b2 = Base64.base64Alphabet[mQuadruple[1]];
+        int marker0 = mQuadruple[2];
+        int marker1 = mQuadruple[3];
+
+        mDecodedPos = 0;
+        mDecoded[0] = (byte) (b1 << 2 | b2 >> 4);
+        if ((marker0 != Base64.PAD) && (marker1 != Base64.PAD)) {
+            //No PAD e.g 3cQl
+            int b3 = Base64.base64Alphabet[marker0];
+            int b4 = Base64.base64Alphabet[marker1];
+            mDecoded[1] = (byte) (((b2 & 0xf) << 4) | ((b3 >> 2) & 0xf));
+            mDecoded[2] = (byte) (b3 << 6 | b4);
+            mDecodedCount = 3;
+        } else if (marker0 == Base64.PAD) {
+            //Two PAD e.g. 3c[Pad][Pad]
+            mDecodedCount = 1;
+        } else {
+            //One PAD e.g. 3cQ[Pad]
+            int b3 = Base64.base64Alphabet[marker0];
+            mDecoded[1] = (byte) (((b2 & 0xf) << 4) | ((b3 >> 2) & 0xf));
+            mDecodedCount = 2;
+        }
+        return true;
+    }
+
+    private boolean fill() throws IOException {
+        int read = in.read(mBuffer, 0, mBuffer.length);
+        while (read == 0) {
+            read = in.read(mBuffer, 0, mBuffer.length);
+        }
+        if (read < 0) {
+            return false;
+        }
+        mBufferPos = 0;
+        mBufferCount = read;
+        return true;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2007-2008 Esmertec AG.
+ * Copyright (C) 2007-2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu_alt;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A ByteArrayInputStream that reads from a ByteBuffer instead of an array,
+ * so the parse routines of PduParser work unchanged on heap, direct and
+ * memory-mapped buffers. Part data can be taken as views of the buffer
+ * with {@link #slice(int)} instead of being copied out.
+ */
+class ByteBufferInputStream extends ByteArrayInputStream {
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * The remaining pdu data, positions are relative to where parsing started.
+     */
+    private final ByteBuffer mBuffer;
+
+    /**
+     * The position reset() goes back to.
+     */
+    private int mMarkPosition = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param buffer the data between position and limit is read,
+     *        the position and limit of the buffer itself are left untouched
+     */
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        super(EMPTY);
+        mBuffer = buffer.slice();
+    }
+
+    /**
+     * Take the next bytes of the stream as a view of the underlying buffer,
+     * without copying them.
+     *
+     * @param length the number of bytes to take
+     * @return a buffer sharing the content of the stream, holding at most
+     *         length bytes when the stream ends early
+     */
+    public ByteBuffer slice(int length) {
+        int end = mBuffer.position() + Math.min(length, mBuffer.remaining());
+
+        ByteBuffer view = mBuffer.duplicate();
+        view.limit(end);
+        mBuffer.position(end);
+
+        return view.slice();
+    }
+
+    @Override
+    public int read() {
+        if (!mBuffer.hasRemaining()) {
+            return -1;
+        }
+        return mBuffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if ((off < 0) || (len < 0) || (len > b.length - off)) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (!mBuffer.hasRemaining()) {
+            return -1;
+        }
+
+        int count = Math.min(len, mBuffer.remaining());
+        mBuffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        int count = (int) Math.max(0, Math.min(n, mBuffer.remaining()));
+        mBuffer.position(mBuffer.position() + count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return mBuffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) {
+        mMarkPosition = mBuffer.position();
+    }
+
+    @Override
+    public void reset() {
+        mBuffer.position(mMarkPosition);
+    }
+}
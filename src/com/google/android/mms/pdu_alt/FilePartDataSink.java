@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2007-2008 Esmertec AG.
+ * Copyright (C) 2007-2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu_alt;
+
+import android.net.Uri;
+
+import com.google.android.mms.ContentType;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+/**
+ * Spills the data of large parts to files while a pdu is parsed from a
+ * stream. The parts refer to their file through a file:// data uri, which
+ * PduPersister reads like any other part uri. Text, smil and html parts are
+ * always kept in memory, as PduPersister stores them from their data.
+ *
+ * The files are deleted by {@link #discardPartData()}, which the parser
+ * calls when the parse fails. Once the pdu is persisted or dropped, the
+ * caller calls it as well.
+ */
+public class FilePartDataSink implements PduParser.PartDataSink {
+    private static final String FILE_PREFIX = "part";
+
+    private final File mDirectory;
+    private final int mThreshold;
+
+    /**
+     * The files created so far.
+     */
+    private final ArrayList<File> mFiles = new ArrayList<File>();
+
+    /**
+     * Constructor.
+     *
+     * @param directory where to create the files, usually the cache directory
+     * @param threshold parts smaller than this many bytes are kept in memory
+     */
+    public FilePartDataSink(File directory, int threshold) {
+        mDirectory = directory;
+        mThreshold = threshold;
+    }
+
+    public synchronized OutputStream openPartData(PduPart part, int length)
+            throws IOException {
+        if ((length < mThreshold) || isText(part)) {
+            return null;
+        }
+
+        File file = File.createTempFile(FILE_PREFIX, null, mDirectory);
+        mFiles.add(file);
+        part.setDataUri(Uri.fromFile(file));
+        return new FileOutputStream(file);
+    }
+
+    /**
+     * Delete every file created for part data.
+     */
+    public synchronized void discardPartData() {
+        for (File file : mFiles) {
+            if (!file.delete() && file.exists()) {
+                file.deleteOnExit();
+            }
+        }
+        mFiles.clear();
+    }
+
+    private static boolean isText(PduPart part) {
+        String contentType = new String(part.getContentType());
+        return ContentType.TEXT_PLAIN.equalsIgnoreCase(contentType)
+                || ContentType.APP_SMIL.equalsIgnoreCase(contentType)
+                || ContentType.TEXT_HTML.equalsIgnoreCase(contentType);
+    }
+}
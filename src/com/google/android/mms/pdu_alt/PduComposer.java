@@ -180,6 +180,49 @@ public class PduComposer {
         return mMessage.toByteArray();
     }
 
+    /**
+     * Make only the body of a send request: the Content-Type value followed
+     * by the multipart entries. The result can be handed to
+     * {@link #make(byte[])} of other composers whose send requests carry
+     * the same parts, so the parts are only encoded once.
+     *
+     * @return the encoded body. Return null if the PDU is not a send
+     *         request or its body is invalid.
+     */
+    public byte[] makeBody() {
+        if (mPdu.getMessageType() != PduHeaders.MESSAGE_TYPE_SEND_REQ) {
+            return null;
+        }
+
+        if (makeMessageBody() != PDU_COMPOSE_SUCCESS) {
+            return null;
+        }
+
+        return mMessage.toByteArray();
+    }
+
+    /**
+     * Make a send request whose body was already encoded by
+     * {@link #makeBody()}. Only the headers of this PDU are composed, the
+     * body of its SendReq is ignored.
+     *
+     * @param body the encoded body
+     * @return the composed message. Return null if the PDU is not a send
+     *         request or its headers are invalid.
+     */
+    public byte[] make(byte[] body) {
+        if (mPdu.getMessageType() != PduHeaders.MESSAGE_TYPE_SEND_REQ) {
+            return null;
+        }
+
+        if (makeSendReqHeaders() != PDU_COMPOSE_SUCCESS) {
+            return null;
+        }
+
+        arraycopy(body, 0, body.length);
+        return mMessage.toByteArray();
+    }
+
     /**
      *  Copy buf to mMessage.
      */
@@ -757,6 +800,19 @@ public class PduComposer {
      * Make Send.req.
      */
     private int makeSendReqPdu() {
+        if (makeSendReqHeaders() != PDU_COMPOSE_SUCCESS) {
+            return PDU_COMPOSE_CONTENT_ERROR;
+        }
+
+        //  Message body
+        return makeMessageBody();
+    }
+
+    /**
+     * Make the headers of Send.req, up to and including the Content-Type
+     * header octet.
+     */
+    private int makeSendReqHeaders() {
         if (mMessage == null) {
             mMessage = new ByteArrayOutputStream();
             mPosition = 0;
@@ -833,8 +889,7 @@ public class PduComposer {
         //    Content-Type
         appendOctet(PduHeaders.CONTENT_TYPE);
 
-        //  Message body
-        return makeMessageBody();
+        return PDU_COMPOSE_SUCCESS;
     }
 
     /**
@@ -20,7 +20,7 @@ package com.google.android.mms.pdu_alt;
 import com.google.android.mms.InvalidHeaderValueException;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 
 public class PduHeaders {
     /**
@@ -320,15 +320,41 @@ public class PduHeaders {
     public static final int STORE_STATUS_ERROR_END                              = 0xFF;
 
     /**
-     * The map contains the value of all headers.
+     * The number of header fields, from BCC to CANCEL_STATUS.
      */
-    private HashMap<Integer, Object> mHeaderMap = null;
+    private static final int FIELD_COUNT = CANCEL_STATUS - BCC + 1;
+
+    /**
+     * The values of all headers, indexed by header field minus BCC.
+     * Octets and long integers are kept unboxed, 0 and -1 mean not set,
+     * the other values are kept in mValues.
+     */
+    private final int[] mOctets;
+    private final long[] mLongIntegers;
+    private final Object[] mValues;
 
     /**
      * Constructor of PduHeaders.
      */
     public PduHeaders() {
-        mHeaderMap = new HashMap<Integer, Object>();
+        mOctets = new int[FIELD_COUNT];
+        mLongIntegers = new long[FIELD_COUNT];
+        Arrays.fill(mLongIntegers, -1);
+        mValues = new Object[FIELD_COUNT];
+    }
+
+    /**
+     * Get the index of a header field in the value arrays.
+     *
+     * @param field the field
+     * @return the index, -1 if the field is not a pdu header field
+     */
+    private static int indexOf(int field) {
+        int index = field - BCC;
+        if ((index < 0) || (index >= FIELD_COUNT)) {
+            return -1;
+        }
+        return index;
     }
 
     /**
@@ -340,12 +366,12 @@ public class PduHeaders {
      *          the value is not set.
      */
     protected int getOctet(int field) {
-        Integer octet = (Integer) mHeaderMap.get(field);
-        if (null == octet) {
+        int index = indexOf(field);
+        if (-1 == index) {
             return 0;
         }
 
-        return octet;
+        return mOctets[index];
     }
 
     /**
@@ -489,7 +515,7 @@ public class PduHeaders {
                 // This header value should not be Octect.
                 throw new RuntimeException("Invalid header field!");
         }
-        mHeaderMap.put(field, value);
+        mOctets[indexOf(field)] = value;
     }
 
     /**
@@ -500,7 +526,22 @@ public class PduHeaders {
      *          with specified header field
      */
     protected byte[] getTextString(int field) {
-        return (byte[]) mHeaderMap.get(field);
+        return (byte[]) getValue(field);
+    }
+
+    /**
+     * Get the value of a header field stored as an object.
+     *
+     * @param field the field
+     * @return the value, null if it is not set
+     */
+    private Object getValue(int field) {
+        int index = indexOf(field);
+        if (-1 == index) {
+            return null;
+        }
+
+        return mValues[index];
     }
 
     /**
@@ -538,7 +579,7 @@ public class PduHeaders {
                 // This header value should not be Text-String.
                 throw new RuntimeException("Invalid header field!");
         }
-        mHeaderMap.put(field, value);
+        mValues[indexOf(field)] = value;
     }
 
     /**
@@ -549,7 +590,7 @@ public class PduHeaders {
      *          with specified header field
      */
     protected EncodedStringValue getEncodedStringValue(int field) {
-        return (EncodedStringValue) mHeaderMap.get(field);
+        return (EncodedStringValue) getValue(field);
     }
 
     /**
@@ -561,7 +602,7 @@ public class PduHeaders {
      */
     protected EncodedStringValue[] getEncodedStringValues(int field) {
         ArrayList<EncodedStringValue> list =
-                (ArrayList<EncodedStringValue>) mHeaderMap.get(field);
+                (ArrayList<EncodedStringValue>) getValue(field);
         if (null == list) {
             return null;
         }
@@ -603,7 +644,7 @@ public class PduHeaders {
                 throw new RuntimeException("Invalid header field!");
         }
 
-        mHeaderMap.put(field, value);
+        mValues[indexOf(field)] = value;
     }
 
     /**
@@ -638,7 +679,7 @@ public class PduHeaders {
         for (int i = 0; i < value.length; i++) {
             list.add(value[i]);
         }
-        mHeaderMap.put(field, list);
+        mValues[indexOf(field)] = list;
     }
 
     /**
@@ -663,13 +704,14 @@ public class PduHeaders {
                 throw new RuntimeException("Invalid header field!");
         }
 
+        int index = indexOf(field);
         ArrayList<EncodedStringValue> list =
-            (ArrayList<EncodedStringValue>) mHeaderMap.get(field);
+            (ArrayList<EncodedStringValue>) mValues[index];
         if (null == list) {
             list  = new ArrayList<EncodedStringValue>();
+            mValues[index] = list;
         }
         list.add(value);
-        mHeaderMap.put(field, list);
     }
 
     /**
@@ -681,12 +723,12 @@ public class PduHeaders {
      *          field is not existed in pdu header.
      */
     protected long getLongInteger(int field) {
-        Long longInteger = (Long) mHeaderMap.get(field);
-        if (null == longInteger) {
+        int index = indexOf(field);
+        if (-1 == index) {
             return -1;
         }
 
-        return longInteger.longValue();
+        return mLongIntegers[index];
     }
 
     /**
@@ -716,6 +758,6 @@ public class PduHeaders {
                 // This header value should not be LongInteger.
                 throw new RuntimeException("Invalid header field!");
         }
-        mHeaderMap.put(field, value);
+        mLongIntegers[indexOf(field)] = value;
     }
 }
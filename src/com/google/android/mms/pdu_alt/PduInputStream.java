@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2007-2008 Esmertec AG.
+ * Copyright (C) 2007-2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu_alt;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A ByteArrayInputStream that pulls the pdu from another InputStream as the
+ * parser goes, so a pdu can be parsed while it is still being received and
+ * never has to be held in memory as a whole.
+ *
+ * The total size of the pdu is not known up front, so available() does not
+ * tell how many bytes are left. It counts down from Integer.MAX_VALUE as
+ * bytes are consumed, which keeps the difference between two calls equal to
+ * the number of bytes read in between, the only thing PduParser uses it for.
+ * Use {@link #isAtEnd()} to find the end of the pdu.
+ *
+ * Read errors end the stream early; they can be checked for afterwards with
+ * {@link #getIOException()}.
+ */
+class PduInputStream extends ByteArrayInputStream {
+    private static final byte[] EMPTY = new byte[0];
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InputStream mIn;
+
+    /**
+     * Bytes read from mIn but not consumed yet, and the bytes since the mark.
+     */
+    private byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mPos = 0;
+    private int mCount = 0;
+    private int mMarkPos = -1;
+    private int mMarkLimit = 0;
+
+    /**
+     * Position in the pdu of mBuffer[0].
+     */
+    private int mBufferOffset = 0;
+
+    private boolean mEof = false;
+    private IOException mIOException = null;
+
+    /**
+     * Constructor.
+     *
+     * @param in the stream to read the pdu from
+     */
+    public PduInputStream(InputStream in) {
+        super(EMPTY);
+        mIn = in;
+    }
+
+    /**
+     * @return true when the whole pdu has been consumed
+     */
+    public boolean isAtEnd() {
+        return !fill();
+    }
+
+    /**
+     * @return the error that ended the stream early, null if there was none
+     */
+    public IOException getIOException() {
+        return mIOException;
+    }
+
+    /**
+     * Copy the next bytes of the stream into another stream.
+     *
+     * @param out where to write the bytes
+     * @param length the number of bytes to copy
+     * @return the number of bytes copied, less than length when the stream
+     *         ended early
+     * @throws IOException when writing to out failed
+     */
+    public int transferTo(OutputStream out, int length) throws IOException {
+        int copied = 0;
+        while ((copied < length) && fill()) {
+            int count = Math.min(length - copied, mCount - mPos);
+            out.write(mBuffer, mPos, count);
+            mPos += count;
+            copied += count;
+        }
+        return copied;
+    }
+
+    /**
+     * Make sure there is at least one unconsumed byte in the buffer.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean fill() {
+        while (mPos >= mCount) {
+            if (mEof) {
+                return false;
+            }
+
+            // Drop the consumed bytes, but keep the ones since a valid mark.
+            if ((mMarkPos >= 0) && (mPos - mMarkPos > mMarkLimit)) {
+                mMarkPos = -1;
+            }
+            int keep = (mMarkPos >= 0) ? mMarkPos : mPos;
+            if (keep > 0) {
+                System.arraycopy(mBuffer, keep, mBuffer, 0, mCount - keep);
+                mBufferOffset += keep;
+                mCount -= keep;
+                mPos -= keep;
+                if (mMarkPos >= 0) {
+                    mMarkPos -= keep;
+                }
+            }
+            if (mCount == mBuffer.length) {
+                byte[] buffer = new byte[mBuffer.length * 2];
+                System.arraycopy(mBuffer, 0, buffer, 0, mCount);
+                mBuffer = buffer;
+            }
+
+            try {
+                int read = mIn.read(mBuffer, mCount, mBuffer.length - mCount);
+                if (read < 0) {
+                    mEof = true;
+                } else {
+                    mCount += read;
+                }
+            } catch (IOException e) {
+                mIOException = e;
+                mEof = true;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() {
+        if (!fill()) {
+            return -1;
+        }
+        return mBuffer[mPos++] & 0xFF;
+    }
+
+    /**
+     * Unlike most streams, this blocks until len bytes are read or the
+     * stream ends, as the parser expects from a ByteArrayInputStream.
+     */
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if ((off < 0) || (len < 0) || (len > b.length - off)) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        int read = 0;
+        while ((read < len) && fill()) {
+            int count = Math.min(len - read, mCount - mPos);
+            System.arraycopy(mBuffer, mPos, b, off + read, count);
+            mPos += count;
+            read += count;
+        }
+        return (read == 0) ? -1 : read;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = 0;
+        while ((skipped < n) && fill()) {
+            int count = (int) Math.min(n - skipped, mCount - mPos);
+            mPos += count;
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return Integer.MAX_VALUE - (mBufferOffset + mPos);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) {
+        mMarkPos = mPos;
+        mMarkLimit = readAheadLimit;
+    }
+
+    @Override
+    public void reset() {
+        if (mMarkPos >= 0) {
+            mPos = mMarkPos;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mIn.close();
+    }
+}
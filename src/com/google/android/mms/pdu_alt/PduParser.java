@@ -24,7 +24,11 @@ import android.util.Log;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
 
@@ -58,6 +62,11 @@ public class PduParser {
      */
     private ByteArrayInputStream mPduDataStream = null;
 
+    /**
+     * Where the data of large parts goes when parsing from a stream.
+     */
+    private PartDataSink mPartDataSink = null;
+
     /**
      * Store pdu headers
      */
@@ -78,10 +87,42 @@ public class PduParser {
      */
     private static byte[] mStartParam = null;
 
+    /**
+     * Receives part data while a pdu is parsed from a stream, so that large
+     * parts do not have to be held in memory.
+     */
+    public interface PartDataSink {
+        /**
+         * Called when the data of a part is about to be read. The headers of
+         * the part are already set. To take the data, make the part refer to
+         * where it will be stored, usually with {@link PduPart#setDataUri},
+         * and return a stream to write it to.
+         *
+         * @param part the part the data belongs to
+         * @param length the size of the data in bytes
+         * @return the stream the data is written to, closed by the parser
+         *         once the data is written. null to keep the data in memory
+         * @throws IOException when the data can't be stored, which fails the parse
+         */
+        OutputStream openPartData(PduPart part, int length) throws IOException;
+
+        /**
+         * Called when the parse fails, after the sink may already have
+         * taken the data of some parts. Nothing refers to that data any
+         * more, so whatever was created for it should be deleted.
+         */
+        void discardPartData();
+    }
+
     /**
      * The log tag.
      */
     private static final String LOG_TAG = "PduParser";
+
+    /**
+     * Initial buffer size for part data read from a stream.
+     */
+    private static final int STREAM_PART_BUFFER_SIZE = 8192;
     private static final boolean DEBUG = false;
     private static final boolean LOCAL_LOGV = false;
 
@@ -94,6 +135,47 @@ public class PduParser {
         mPduDataStream = new ByteArrayInputStream(pduDataStream);
     }
 
+    /**
+     * Constructor for parsing straight from a buffer, which may be a heap,
+     * direct or memory-mapped one. Binary part data is not copied: the parts
+     * hold views of the buffer (see {@link PduPart#getDataBuffer()}), so the
+     * buffer content must not change while the parsed pdu is in use.
+     *
+     * @param pduData pdu data to be parsed, from its position to its limit.
+     *        The position and limit of the buffer are left untouched.
+     */
+    public PduParser(ByteBuffer pduData) {
+        mPduDataStream = new ByteBufferInputStream(pduData);
+    }
+
+    /**
+     * Constructor for parsing a pdu while it is being read, for example from
+     * a network connection. Only the bytes being parsed are buffered, and
+     * the data of the parts the sink takes is written out as it arrives.
+     *
+     * @param pduDataStream stream to read the pdu from, it is read up to the
+     *        end of the pdu but not closed
+     * @param partDataSink where to write part data to, null to keep the data
+     *        of every part in memory
+     */
+    public PduParser(InputStream pduDataStream, PartDataSink partDataSink) {
+        mPduDataStream = new PduInputStream(pduDataStream);
+        mPartDataSink = partDataSink;
+    }
+
+    /**
+     * @return the error that cut reading the pdu from a stream short, null
+     *         if there was none or the pdu is not parsed from a stream. The
+     *         parse fails when there was one, so it tells a broken
+     *         connection apart from a malformed pdu.
+     */
+    public IOException getIOException() {
+        if (mPduDataStream instanceof PduInputStream) {
+            return ((PduInputStream) mPduDataStream).getIOException();
+        }
+        return null;
+    }
+
     /**
      * Parse the pdu.
      *
@@ -101,6 +183,19 @@ public class PduParser {
      *         null if parsing error happened or mandatory fields are not set.
      */
     public GenericPdu parse(){
+        GenericPdu pdu = null;
+        try {
+            pdu = parsePdu();
+            return pdu;
+        } finally {
+            if ((null == pdu) && (null != mPartDataSink)) {
+                // The caller gets nothing back that refers to the stored data.
+                mPartDataSink.discardPartData();
+            }
+        }
+    }
+
+    private GenericPdu parsePdu() {
         if (mPduDataStream == null) {
             return null;
         }
@@ -111,6 +206,9 @@ public class PduParser {
             // Parse headers failed.
             return null;
         }
+        if (hasReadError(mPduDataStream)) {
+            return null;
+        }
 
         /* get the message type */
         int messageType = mHeaders.getOctet(PduHeaders.MESSAGE_TYPE);
@@ -124,8 +222,8 @@ public class PduParser {
         if ((PduHeaders.MESSAGE_TYPE_SEND_REQ == messageType) ||
                 (PduHeaders.MESSAGE_TYPE_RETRIEVE_CONF == messageType)) {
             /* need to parse the parts */
-            mBody = parseParts(mPduDataStream);
-            if (null == mBody) {
+            mBody = parseParts(mPduDataStream, mPartDataSink);
+            if ((null == mBody) || hasReadError(mPduDataStream)) {
                 // Parse parts failed.
                 return null;
             }
@@ -227,15 +325,105 @@ public class PduParser {
      * @return headers in PduHeaders structure, null when parse fail
      */
     protected PduHeaders parseHeaders(ByteArrayInputStream pduDataStream){
+        return parseHeaders(pduDataStream, null);
+    }
+
+    /**
+     * Parse the headers of the pdu without its body, for example to triage
+     * a burst of notifications. Only the requested header fields are
+     * decoded; the values of the others are skipped over, and parsing stops
+     * as soon as every requested field has been found or the body starts.
+     * The mandatory headers of the message type are not checked.
+     *
+     * @param headerFields the header fields to parse, such as
+     *        PduHeaders.MESSAGE_TYPE or PduHeaders.TRANSACTION_ID. null
+     *        to parse every header field.
+     * @return headers in PduHeaders structure, holding the requested fields
+     *         that are present in the pdu. null when parse fail
+     */
+    public PduHeaders parseHeadersOnly(int[] headerFields) {
+        if (mPduDataStream == null) {
+            return null;
+        }
+
+        boolean[] wantedFields = null;
+        if (null != headerFields) {
+            wantedFields = new boolean[256];
+            for (int headerField : headerFields) {
+                wantedFields[headerField & 0xFF] = true;
+            }
+        }
+
+        PduHeaders headers = parseHeaders(mPduDataStream, wantedFields);
+        if (hasReadError(mPduDataStream)) {
+            return null;
+        }
+        return headers;
+    }
+
+    /**
+     * Parse pdu headers.
+     *
+     * @param pduDataStream pdu data input stream
+     * @param wantedFields which header fields to parse, indexed by header
+     *        field. The values of the other fields are skipped. null to
+     *        parse every header field
+     * @return headers in PduHeaders structure, null when parse fail
+     */
+    protected PduHeaders parseHeaders(ByteArrayInputStream pduDataStream,
+            boolean[] wantedFields) {
         if (pduDataStream == null) {
             return null;
         }
         boolean keepParsing = true;
         PduHeaders headers = new PduHeaders();
 
-        while (keepParsing && (pduDataStream.available() > 0)) {
+        /* count the fields still to find, address fields can be repeated */
+        int missingFields = -1;
+        boolean[] foundFields = null;
+        if (null != wantedFields) {
+            missingFields = 0;
+            foundFields = new boolean[wantedFields.length];
+            for (int i = 0; i < wantedFields.length; i++) {
+                if (wantedFields[i]) {
+                    missingFields++;
+                }
+            }
+            if (wantedFields[PduHeaders.TO] || wantedFields[PduHeaders.CC]
+                    || wantedFields[PduHeaders.BCC]) {
+                missingFields = -1;
+            }
+        }
+
+        while (keepParsing && (0 != missingFields) && hasMoreData(pduDataStream)) {
             pduDataStream.mark(1);
             int headerField = extractByteValue(pduDataStream);
+            /* skip the fields that are not wanted without decoding them */
+            if ((null != wantedFields) && !wantedFields[headerField]) {
+                int skipped;
+                if ((headerField >= TEXT_MIN) && (headerField <= TEXT_MAX)) {
+                    /* custom text header, ignored anyway */
+                    pduDataStream.reset();
+                    skipped = skipTextString(pduDataStream);
+                } else {
+                    skipped = skipHeaderValue(pduDataStream);
+                }
+                if (-1 == skipped) {
+                    log("Corrupt header: " + headerField);
+                    return null;
+                }
+                if (PduHeaders.CONTENT_TYPE == headerField) {
+                    /* the body follows Content-Type */
+                    keepParsing = false;
+                }
+                continue;
+            }
+            if ((null != foundFields) && !foundFields[headerField]) {
+                foundFields[headerField] = true;
+                if (missingFields > 0) {
+                    missingFields--;
+                }
+            }
             /* parse custom text header */
             if ((headerField >= TEXT_MIN) && (headerField <= TEXT_MAX)) {
                 pduDataStream.reset();
@@ -819,6 +1007,72 @@ public class PduParser {
         return headers;
     }
 
+    /**
+     * Skip a header value, without decoding it.
+     *
+     * @param pduDataStream pdu data input stream, positioned after the
+     *        header field
+     * @return the number of bytes skipped, -1 when the pdu ends early
+     */
+    protected static int skipHeaderValue(ByteArrayInputStream pduDataStream) {
+        /**
+         * From wap-230-wsp-20010705-a.pdf
+         * Every value starts with an octet telling how it is encoded:
+         * 0 - 30     The value is the next 0 - 30 octets (Short-length)
+         * 31         The value length follows as Uintvar-integer (Length-quote)
+         * 32 - 127   The value is a Text-string, ending with End-of-string
+         * 128 - 255  The value is that octet (Short-integer)
+         */
+        int startPos = pduDataStream.available();
+        pduDataStream.mark(1);
+        int first = pduDataStream.read();
+        if (-1 == first) {
+            return -1;
+        }
+
+        int length = 0;
+        if (first <= SHORT_LENGTH_MAX) {
+            length = first;
+        } else if (first == LENGTH_QUOTE) {
+            length = parseUnsignedInt(pduDataStream);
+            if (-1 == length) {
+                return -1;
+            }
+        } else if (first <= TEXT_MAX) {
+            pduDataStream.reset();
+            if (-1 == skipTextString(pduDataStream)) {
+                return -1;
+            }
+        }
+
+        if ((length > 0) && (-1 == skipWapValue(pduDataStream, length))) {
+            return -1;
+        }
+
+        return startPos - pduDataStream.available();
+    }
+
+    /**
+     * Skip a Text-string, Quoted-string or Token-text.
+     *
+     * @param pduDataStream pdu data input stream
+     * @return the number of bytes skipped, End-of-string included,
+     *         -1 when the pdu ends before End-of-string
+     */
+    private static int skipTextString(ByteArrayInputStream pduDataStream) {
+        int skipped = 0;
+        int temp;
+        do {
+            temp = pduDataStream.read();
+            if (-1 == temp) {
+                return -1;
+            }
+            skipped++;
+        } while (END_STRING_FLAG != temp);
+
+        return skipped;
+    }
+
     /**
      * Parse pdu parts.
      *
@@ -826,6 +1080,19 @@ public class PduParser {
      * @return parts in PduBody structure
      */
     protected static PduBody parseParts(ByteArrayInputStream pduDataStream) {
+        return parseParts(pduDataStream, null);
+    }
+
+    /**
+     * Parse pdu parts.
+     *
+     * @param pduDataStream pdu data input stream
+     * @param partDataSink where to write part data to when parsing from a
+     *        stream, null to keep it in memory
+     * @return parts in PduBody structure
+     */
+    protected static PduBody parseParts(ByteArrayInputStream pduDataStream,
+            PartDataSink partDataSink) {
         if (pduDataStream == null) {
             return null;
         }
@@ -838,7 +1105,7 @@ public class PduParser {
             int dataLength = parseUnsignedInt(pduDataStream);
             PduPart part = new PduPart();
             int startPos = pduDataStream.available();
-            if (startPos <= 0) {
+            if (!hasMoreData(pduDataStream)) {
                 // Invalid part.
                 return null;
             }
@@ -889,10 +1156,61 @@ public class PduParser {
             }
 
             /* get part's data */
-            if (dataLength > 0) {
-                byte[] partData = new byte[dataLength];
+            if ((dataLength > 0) && (pduDataStream instanceof ByteBufferInputStream)) {
+                // Keep the data as a view of the pdu buffer instead of copying it.
+                ByteBuffer partData = ((ByteBufferInputStream) pduDataStream).slice(dataLength);
+                String partContentType = new String(part.getContentType());
+                if (partContentType.equalsIgnoreCase(ContentType.MULTIPART_ALTERNATIVE)) {
+                    // parse "multipart/vnd.wap.multipart.alternative".
+                    PduBody childBody = parseParts(new ByteBufferInputStream(partData));
+                    // take the first part of children.
+                    part = childBody.getPart(0);
+                } else if (isTransferEncoded(part)) {
+                    // Decoded when the data is first accessed.
+                    part.setEncodedData(partData);
+                    if (isTextPart(part) && !part.decodeData()) {
+                        // Text is stored as a string, reject corrupt data now.
+                        return null;
+                    }
+                } else {
+                    part.setDataBuffer(partData);
+                }
+            } else if ((dataLength > 0) && (null != partDataSink)
+                    && (pduDataStream instanceof PduInputStream)
+                    && !isTransferEncoded(part)
+                    && !ContentType.MULTIPART_ALTERNATIVE.equalsIgnoreCase(
+                            new String(part.getContentType()))) {
+                // Let the sink take the data while it is read.
+                try {
+                    OutputStream out = partDataSink.openPartData(part, dataLength);
+                    if (null == out) {
+                        byte[] partData = readPartData(pduDataStream, dataLength);
+                        if (null == partData) {
+                            return null;
+                        }
+                        part.setData(partData);
+                    } else {
+                        int written;
+                        try {
+                            written = ((PduInputStream) pduDataStream).transferTo(out, dataLength);
+                        } finally {
+                            out.close();
+                        }
+                        if (written < dataLength) {
+                            log("Part data is truncated!");
+                            return null;
+                        }
+                    }
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Failed to store part data", e);
+                    return null;
+                }
+            } else if (dataLength > 0) {
+                byte[] partData = readPartData(pduDataStream, dataLength);
+                if (null == partData) {
+                    return null;
+                }
                 String partContentType = new String(part.getContentType());
-                pduDataStream.read(partData, 0, dataLength);
                 if (partContentType.equalsIgnoreCase(ContentType.MULTIPART_ALTERNATIVE)) {
                     // parse "multipart/vnd.wap.multipart.alternative".
                     PduBody childBody = parseParts(new ByteArrayInputStream(partData));
@@ -900,24 +1218,16 @@ public class PduParser {
                     part = childBody.getPart(0);
                 } else {
                     // Check Content-Transfer-Encoding.
-                    byte[] partDataEncoding = part.getContentTransferEncoding();
-                    if (null != partDataEncoding) {
-                        String encoding = new String(partDataEncoding);
-                        if (encoding.equalsIgnoreCase(PduPart.P_BASE64)) {
-                            // Decode "base64" into "binary".
-                            partData = Base64.decodeBase64(partData);
-                        } else if (encoding.equalsIgnoreCase(PduPart.P_QUOTED_PRINTABLE)) {
-                            // Decode "quoted-printable" into "binary".
-                            partData = QuotedPrintable.decodeQuotedPrintable(partData);
-                        } else {
-                            // "binary" is the default encoding.
+                    if (isTransferEncoded(part)) {
+                        // Decoded when the data is first accessed.
+                        part.setEncodedData(partData);
+                        if (isTextPart(part) && !part.decodeData()) {
+                            // Text is stored as a string, reject corrupt data now.
+                            return null;
                         }
+                    } else {
+                        part.setData(partData);
                     }
-                    if (null == partData) {
-                        log("Decode part data error!");
-                        return null;
-                    }
-                    part.setData(partData);
                 }
             }
 
@@ -934,6 +1244,99 @@ public class PduParser {
         return body;
     }
 
+    /**
+     * Check whether the data of a part needs decoding.
+     *
+     * @param part the part to check
+     * @return true if the Content-Transfer-Encoding of the part is
+     *         "base64" or "quoted-printable", false for "binary" and others
+     */
+    private static boolean isTransferEncoded(PduPart part) {
+        byte[] partDataEncoding = part.getContentTransferEncoding();
+        if (null == partDataEncoding) {
+            return false;
+        }
+
+        String encoding = new String(partDataEncoding);
+        return encoding.equalsIgnoreCase(PduPart.P_BASE64)
+                || encoding.equalsIgnoreCase(PduPart.P_QUOTED_PRINTABLE);
+    }
+
+    /**
+     * Read the data of a part into memory. The length comes from the pdu, so
+     * when the pdu is read from a stream the array only grows as the data
+     * actually arrives, a corrupt length can't make it allocate the memory
+     * up front.
+     *
+     * @param pduDataStream pdu data input stream
+     * @param dataLength the length of the part data
+     * @return the part data, null if a streamed pdu ended before all of it
+     */
+    private static byte[] readPartData(ByteArrayInputStream pduDataStream,
+            int dataLength) {
+        if (!(pduDataStream instanceof PduInputStream)) {
+            byte[] partData = new byte[dataLength];
+            pduDataStream.read(partData, 0, dataLength);
+            return partData;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                Math.min(dataLength, STREAM_PART_BUFFER_SIZE));
+        try {
+            if (((PduInputStream) pduDataStream).transferTo(out, dataLength) < dataLength) {
+                log("Part data is truncated!");
+                return null;
+            }
+        } catch (IOException e) {
+            // Writing to a ByteArrayOutputStream does not fail.
+            return null;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Check whether a part is stored as text rather than as a file.
+     *
+     * @param part the part to check
+     * @return true for "text/plain", "application/smil" and "text/html"
+     */
+    private static boolean isTextPart(PduPart part) {
+        String contentType = new String(part.getContentType());
+        return contentType.equalsIgnoreCase(ContentType.TEXT_PLAIN)
+                || contentType.equalsIgnoreCase(ContentType.APP_SMIL)
+                || contentType.equalsIgnoreCase(ContentType.TEXT_HTML);
+    }
+
+    /**
+     * Check whether there is anything left to parse.
+     *
+     * @param pduDataStream pdu data input stream
+     * @return true if at least one more byte can be read
+     */
+    private static boolean hasMoreData(ByteArrayInputStream pduDataStream) {
+        if (pduDataStream instanceof PduInputStream) {
+            return !((PduInputStream) pduDataStream).isAtEnd();
+        }
+        return pduDataStream.available() > 0;
+    }
+
+    /**
+     * Check whether reading the pdu failed part way.
+     *
+     * @param pduDataStream pdu data input stream
+     * @return true if the stream the pdu is read from reported an error
+     */
+    private static boolean hasReadError(ByteArrayInputStream pduDataStream) {
+        if (pduDataStream instanceof PduInputStream) {
+            IOException e = ((PduInputStream) pduDataStream).getIOException();
+            if (null != e) {
+                Log.e(LOG_TAG, "Failed to read pdu", e);
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Log status.
      *
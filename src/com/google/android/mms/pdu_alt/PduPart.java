@@ -18,7 +18,11 @@
 package com.google.android.mms.pdu_alt;
 
 import android.net.Uri;
+import android.util.Log;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -119,6 +123,21 @@ public class PduPart {
       */
      private byte[] mPartData = null;
 
+     /**
+      * Part data as a view of the buffer it was parsed from.
+      */
+     private ByteBuffer mPartDataBuffer = null;
+
+     /**
+      * Whether the part data is still in its Content-Transfer-Encoding.
+      */
+     private boolean mDataEncoded = false;
+
+     /**
+      * Whether the encoded part data turned out to be corrupt.
+      */
+     private boolean mDecodeFailed = false;
+
      private static final String TAG = "PduPart";
 
      /**
@@ -140,14 +159,129 @@ public class PduPart {
 
          mPartData = new byte[data.length];
          System.arraycopy(data, 0, mPartData, 0, data.length);
+         mPartDataBuffer = null;
+         mDataEncoded = false;
+         mDecodeFailed = false;
+     }
+
+     /**
+      * Set part data without copying it. The part keeps a read-only view of
+      * the bytes between the position and the limit of the buffer, so the
+      * buffer content must not change while the part is in use.
+      *
+      * @param data the data
+      */
+     public void setDataBuffer(ByteBuffer data) {
+         if(data == null) {
+            return;
+        }
+
+         mPartDataBuffer = data.slice().asReadOnlyBuffer();
+         mPartData = null;
+         mDataEncoded = false;
+         mDecodeFailed = false;
+     }
+
+     /**
+      * Set part data that is still base64 or quoted-printable encoded, as
+      * given by the Content-Transfer-Encoding of the part. The data is only
+      * decoded when it is first accessed. The array is kept, not copied.
+      *
+      * @param data the encoded data
+      */
+     void setEncodedData(byte[] data) {
+         if(data == null) {
+            return;
+        }
+
+         mPartData = data;
+         mPartDataBuffer = null;
+         mDataEncoded = true;
+         mDecodeFailed = false;
+     }
+
+     /**
+      * Set part data that is still base64 or quoted-printable encoded, as a
+      * view of the buffer it was parsed from.
+      *
+      * @param data the encoded data
+      */
+     void setEncodedData(ByteBuffer data) {
+         if(data == null) {
+            return;
+        }
+
+         mPartDataBuffer = data.slice().asReadOnlyBuffer();
+         mPartData = null;
+         mDataEncoded = true;
+         mDecodeFailed = false;
+     }
+
+     /**
+      * Replace encoded part data by the decoded data. A failure is
+      * remembered, the data is not decoded again.
+      *
+      * @return false if the data could not be decoded
+      */
+     boolean decodeData() {
+         if (!mDataEncoded) {
+             return true;
+         }
+         if (mDecodeFailed) {
+             return false;
+         }
+
+         byte[] encodedData = mPartData;
+         if (mPartDataBuffer != null) {
+             encodedData = new byte[mPartDataBuffer.remaining()];
+             mPartDataBuffer.duplicate().get(encodedData);
+         }
+
+         byte[] decodedData;
+         if (isBase64Encoded()) {
+             // Decode "base64" into "binary".
+             decodedData = Base64.decodeBase64(encodedData);
+         } else {
+             // Decode "quoted-printable" into "binary".
+             decodedData = QuotedPrintable.decodeQuotedPrintable(encodedData);
+         }
+         if (decodedData == null) {
+             Log.e(TAG, "Decode part data error!");
+             mDecodeFailed = true;
+             return false;
+         }
+
+         mPartData = decodedData;
+         mPartDataBuffer = null;
+         mDataEncoded = false;
+         return true;
+     }
+
+     private boolean isBase64Encoded() {
+         byte[] encoding = getContentTransferEncoding();
+         return (encoding != null) && P_BASE64.equalsIgnoreCase(new String(encoding));
      }
 
      /**
       * @return A copy of the part data or null if the data wasn't set or
       *         the data is stored as Uri.
+      *         Base64 and quoted-printable data is decoded on the first
+      *         access, null is returned if it is corrupt.
       * @see #getDataUri
+      * @see #getDataBuffer
+      * @see #getDataStream
       */
      public byte[] getData() {
+         if (!decodeData()) {
+             return null;
+         }
+
+         if (mPartDataBuffer != null) {
+             byte[] byteArray = new byte[mPartDataBuffer.remaining()];
+             mPartDataBuffer.duplicate().get(byteArray);
+             return byteArray;
+         }
+
          if(mPartData == null) {
             return null;
          }
@@ -157,6 +291,73 @@ public class PduPart {
          return byteArray;
      }
 
+     /**
+      * @return A read-only view of the part data, without copying it, or
+      *         null if the data wasn't set or the data is stored as Uri.
+      * @see #getData
+      */
+     public ByteBuffer getDataBuffer() {
+         if (!decodeData()) {
+             return null;
+         }
+
+         if (mPartDataBuffer != null) {
+             return mPartDataBuffer.duplicate();
+         }
+
+         if(mPartData == null) {
+            return null;
+         }
+
+         return ByteBuffer.wrap(mPartData).asReadOnlyBuffer();
+     }
+
+     /**
+      * @return The size of the part data in bytes, or -1 if the data wasn't
+      *         set or the data is stored as Uri.
+      */
+     public int getDataLength() {
+         if (!decodeData()) {
+             return -1;
+         }
+
+         if (mPartDataBuffer != null) {
+             return mPartDataBuffer.remaining();
+         }
+
+         return (mPartData == null) ? -1 : mPartData.length;
+     }
+
+     /**
+      * @return A stream of the part data, or null if the data wasn't set or
+      *         the data is stored as Uri or is corrupt. Base64 and
+      *         quoted-printable data that was not accessed yet is decoded
+      *         while it is read, without decoding it in memory first.
+      * @see #getData
+      */
+     public InputStream getDataStream() {
+         if (mDecodeFailed) {
+             return null;
+         }
+
+         InputStream in;
+         if (mPartDataBuffer != null) {
+             in = new ByteBufferInputStream(mPartDataBuffer);
+         } else if (mPartData != null) {
+             in = new ByteArrayInputStream(mPartData);
+         } else {
+             return null;
+         }
+
+         if (!mDataEncoded) {
+             return in;
+         } else if (isBase64Encoded()) {
+             return new Base64InputStream(in);
+         } else {
+             return new QuotedPrintableInputStream(in);
+         }
+     }
+
      /**
       * Set data uri. The data are stored as Uri.
       *
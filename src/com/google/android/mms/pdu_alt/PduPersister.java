@@ -786,6 +786,10 @@ public class PduPersister {
             if (ContentType.TEXT_PLAIN.equals(contentType)
                     || ContentType.APP_SMIL.equals(contentType)
                     || ContentType.TEXT_HTML.equals(contentType)) {
+                if (data == null) {
+                    // Corrupt base64 or quoted-printable data can't be decoded.
+                    throw new MmsException("no text data for " + uri);
+                }
                 ContentValues cv = new ContentValues();
                 cv.put(Telephony.Mms.Part.TEXT, new EncodedStringValue(data).getString());
                 if (mContentResolver.update(uri, cv, null, null) != 1) {
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2007-2008 Esmertec AG.
+ * Copyright (C) 2007-2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu_alt;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes quoted-printable data while it is read, the streaming counterpart
+ * of {@link QuotedPrintable#decodeQuotedPrintable(byte[])}. Data that
+ * decodeQuotedPrintable rejects makes read() throw an IOException.
+ */
+public class QuotedPrintableInputStream extends FilterInputStream {
+    private static final int ESCAPE_CHAR = '=';
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * Encoded data read ahead from the underlying stream.
+     */
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mBufferPos = 0;
+    private int mBufferCount = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param in the quoted-printable data
+     */
+    public QuotedPrintableInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (true) {
+            int b = nextOctet();
+            if (b != ESCAPE_CHAR) {
+                return b;
+            }
+
+            int first = nextOctet();
+            if ('\r' == first) {
+                int second = nextOctet();
+                if ('\n' == second) {
+                    // Soft line break.
+                    continue;
+                }
+                throw new IOException("Corrupt quoted-printable data");
+            }
+            if (-1 == first) {
+                throw new IOException("Corrupt quoted-printable data");
+            }
+
+            int u = Character.digit((char) (byte) first, 16);
+            int second = nextOctet();
+            if (-1 == second) {
+                throw new IOException("Corrupt quoted-printable data");
+            }
+            int l = Character.digit((char) (byte) second, 16);
+            if (u == -1 || l == -1) {
+                throw new IOException("Corrupt quoted-printable data");
+            }
+            return ((u << 4) + l) & 0xFF;
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if ((off < 0) || (len < 0) || (len > b.length - off)) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        int read = 0;
+        while (read < len) {
+            int octet = read();
+            if (-1 == octet) {
+                break;
+            }
+            b[off + read++] = (byte) octet;
+        }
+        return (read == 0) ? -1 : read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while ((skipped < n) && (read() != -1)) {
+            skipped++;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return 0;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readlimit) {
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * @return the next encoded octet, -1 at the end of the data
+     */
+    private int nextOctet() throws IOException {
+        while (mBufferPos == mBufferCount) {
+            int read = in.read(mBuffer, 0, mBuffer.length);
+            if (read < 0) {
+                return -1;
+            }
+            mBufferPos = 0;
+            mBufferCount = read;
+        }
+        return mBuffer[mBufferPos++] & 0xFF;
+    }
+}
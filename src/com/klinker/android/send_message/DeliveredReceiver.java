@@ -30,12 +30,13 @@ public class DeliveredReceiver extends BroadcastReceiver {
 		Uri outboxUri = (Uri) intent.getParcelableExtra(Transaction.SMS_OUTBOX_URI);
 		if (outboxUri == null)
 			return;
-		switch (getResultCode()) {
-		case Activity.RESULT_OK:
+		SmsPartTracker.Status status = SmsPartTracker.onPartDelivered(context, outboxUri, intent.getIntExtra(Transaction.SMS_PART_INDEX, -1), intent.getIntExtra(Transaction.SMS_PART_COUNT, 1), getResultCode() == Activity.RESULT_OK);
+
+		// only mark the message once every part has reported, failed if any of them was not delivered
+		if (status != null) {
 			ContentValues values = new ContentValues();
-			values.put(Sms.STATUS, Sms.STATUS_COMPLETE);
+			values.put(Sms.STATUS, status.success ? Sms.STATUS_COMPLETE : Sms.STATUS_FAILED);
 			SqliteWrapper.update(context, context.getContentResolver(), outboxUri, values, null, null);
-			break;
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2013 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.klinker.android.send_message;
+
+import com.android.internal.telephony.GsmAlphabet;
+import com.android.internal.telephony.SmsConstants;
+
+/**
+ * The body of an sms as it will be sent, with accents stripped if enabled, along with its segment counts. Both are
+ * worked out in a single pass over the text so that the send path never has to strip or count the same body twice.
+ * Counts are made with the default gsm alphabet, switching to ucs-2 when a character cannot be encoded. When national
+ * language tables are enabled in GsmAlphabet the stripped text is counted again among them, since the platform picks
+ * from them when it splits the text.
+ *
+ * @author Jake Klinker
+ */
+public class EncodedText {
+
+	// what the result was built from, so Message can tell whether its cached copy is still good
+	final String source;
+	final String signature;
+	final StripAccents.Table table;
+
+	private final String text;
+	private final int septets;
+	private final boolean unicode;
+
+	// the counts among the enabled national tables, null when only the default ones are enabled or in ucs-2
+	private final GsmAlphabet.TextEncodingDetails national;
+
+	private EncodedText(String source, String signature, StripAccents.Table table, String text, int septets, boolean unicode, GsmAlphabet.TextEncodingDetails national) {
+		this.source = source;
+		this.signature = signature;
+		this.table = table;
+		this.text = text;
+		this.septets = septets;
+		this.unicode = unicode;
+		this.national = national;
+	}
+
+	/**
+	 * Strips and counts a body in one pass
+	 *
+	 * @param s
+	 *            is the text to send
+	 * @param stripUnicode
+	 *            is whether accents should be replaced with gsm characters
+	 * @return the text to send along with its counts
+	 */
+	public static EncodedText encode(String s, boolean stripUnicode) {
+		return encode(s, "", stripUnicode);
+	}
+
+	/**
+	 * Strips and counts a body in one pass after adding a signature to it
+	 */
+	static EncodedText encode(String source, String signature, boolean stripUnicode) {
+		String s = signature.equals("") ? source : source + "\n" + signature;
+		StripAccents.Table table = stripUnicode ? StripAccents.getTable() : null;
+		StringBuilder builder = null;
+		int length = s.length();
+		int septets = 0;
+		boolean unicode = false;
+
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+
+			if (table != null && table.isMapped(c)) {
+				// nothing is copied until the first character that needs replacing
+				if (builder == null) {
+					builder = new StringBuilder(length);
+					builder.append(s, 0, i);
+				}
+
+				if (table.multi != null && table.multi[c] != null) {
+					String to = table.multi[c];
+					builder.append(to);
+
+					for (int j = 0; j < to.length() && !unicode; j++) {
+						int count = GsmAlphabet.countGsmSeptetsUsingTables(to.charAt(j), 0, 0);
+						if (count == -1)
+							unicode = true;
+						else
+							septets += count;
+					}
+
+					continue;
+				}
+
+				c = table.single[c];
+				builder.append(c);
+			} else if (builder != null) {
+				builder.append(c);
+			}
+
+			if (!unicode) {
+				int count = GsmAlphabet.countGsmSeptetsUsingTables(c, 0, 0);
+				if (count == -1)
+					unicode = true;
+				else
+					septets += count;
+			}
+		}
+
+		String text = builder != null ? builder.toString() : s;
+
+		// a national table can encode characters the default alphabet cannot, so count the way the platform will
+		GsmAlphabet.TextEncodingDetails national = null;
+		if (GsmAlphabet.hasEnabledNationalTables()) {
+			national = GsmAlphabet.countGsmSeptets(text, false);
+			unicode = national == null;
+		}
+
+		return new EncodedText(source, signature, table, text, septets, unicode, national);
+	}
+
+	/**
+	 * Gets the text that will be sent and stored
+	 *
+	 * @return the stripped text, or the original if nothing was replaced
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Gets the encoding the text will be sent with
+	 *
+	 * @return SmsConstants.ENCODING_7BIT or SmsConstants.ENCODING_16BIT
+	 */
+	public int getCodeUnitSize() {
+		return unicode ? SmsConstants.ENCODING_16BIT : SmsConstants.ENCODING_7BIT;
+	}
+
+	/**
+	 * Gets the number of code units the text takes, septets for the gsm alphabet and characters for ucs-2
+	 *
+	 * @return the code unit count
+	 */
+	public int getCodeUnitCount() {
+		if (national != null)
+			return national.codeUnitCount;
+
+		return unicode ? text.length() : septets;
+	}
+
+	/**
+	 * Gets the number of sms the text will be split into
+	 *
+	 * @return the message count, at least 1
+	 */
+	public int getMessageCount() {
+		if (national != null)
+			return national.msgCount;
+
+		return getMessageCount(unicode, getCodeUnitCount());
+	}
+
+	/**
+	 * Gets the number of code units that can still be added before another sms is needed
+	 *
+	 * @return the remaining code units in the last message
+	 */
+	public int getCodeUnitsRemaining() {
+		if (national != null)
+			return national.codeUnitsRemaining;
+
+		return getCodeUnitsRemaining(unicode, getCodeUnitCount());
+	}
+
+	/**
+	 * Gets the number of sms needed for a number of code units, the same way SmsMessage.calculateLength does
+	 */
+	static int getMessageCount(boolean unicode, int codeUnits) {
+		if (unicode) {
+			int octets = codeUnits * 2;
+			if (octets > SmsConstants.MAX_USER_DATA_BYTES)
+				return (octets + SmsConstants.MAX_USER_DATA_BYTES_WITH_HEADER - 1) / SmsConstants.MAX_USER_DATA_BYTES_WITH_HEADER;
+		} else {
+			if (codeUnits > SmsConstants.MAX_USER_DATA_SEPTETS)
+				return (codeUnits + SmsConstants.MAX_USER_DATA_SEPTETS_WITH_HEADER - 1) / SmsConstants.MAX_USER_DATA_SEPTETS_WITH_HEADER;
+		}
+
+		return 1;
+	}
+
+	/**
+	 * Gets the room left in the last sms for a number of code units, the same way SmsMessage.calculateLength does
+	 */
+	static int getCodeUnitsRemaining(boolean unicode, int codeUnits) {
+		int messages = getMessageCount(unicode, codeUnits);
+
+		if (unicode) {
+			int octets = codeUnits * 2;
+			if (octets > SmsConstants.MAX_USER_DATA_BYTES)
+				return (messages * SmsConstants.MAX_USER_DATA_BYTES_WITH_HEADER - octets) / 2;
+			return (SmsConstants.MAX_USER_DATA_BYTES - octets) / 2;
+		}
+
+		if (codeUnits > SmsConstants.MAX_USER_DATA_SEPTETS)
+			return messages * SmsConstants.MAX_USER_DATA_SEPTETS_WITH_HEADER - codeUnits;
+		return SmsConstants.MAX_USER_DATA_SEPTETS - codeUnits;
+	}
+
+	/**
+	 * Gets the counts in the same form SmsMessage.calculateLength builds them
+	 *
+	 * @return the encoding details of the text
+	 */
+	public GsmAlphabet.TextEncodingDetails getEncodingDetails() {
+		GsmAlphabet.TextEncodingDetails ted = new GsmAlphabet.TextEncodingDetails();
+		ted.msgCount = getMessageCount();
+		ted.codeUnitCount = getCodeUnitCount();
+		ted.codeUnitsRemaining = getCodeUnitsRemaining();
+		ted.codeUnitSize = getCodeUnitSize();
+
+		if (national != null) {
+			ted.languageTable = national.languageTable;
+			ted.languageShiftTable = national.languageShiftTable;
+		}
+
+		return ted;
+	}
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2013 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.klinker.android.send_message;
+
+import com.android.internal.telephony.GsmAlphabet;
+import com.android.internal.telephony.SmsConstants;
+
+/**
+ * Finds the encoding that sends a text in the fewest sms. Ucs-2 is compared against every pair of gsm language and
+ * single shift tables, and for each pair only the characters that the pair cannot encode are transliterated with
+ * StripAccents, instead of stripping the whole text. When two options need the same number of messages, the one that
+ * changes fewer characters wins, so the text is only altered when that actually saves a message.
+ *
+ * Non-default tables only help if whatever builds the pdus can use them, so by default only the tables enabled in
+ * GsmAlphabet are tried, the same ones the SmsManager picks from.
+ *
+ * @author Jake Klinker
+ */
+public class EncodingOptimizer {
+
+	/**
+	 * The chosen encoding for a text
+	 */
+	public static class Result {
+		private final String text;
+		private final int transliterated;
+		private final GsmAlphabet.TextEncodingDetails details;
+
+		private Result(String text, int transliterated, GsmAlphabet.TextEncodingDetails details) {
+			this.text = text;
+			this.transliterated = transliterated;
+			this.details = details;
+		}
+
+		/**
+		 * Gets the text to send, with the offending characters transliterated if that was needed
+		 *
+		 * @return the text to send
+		 */
+		public String getText() {
+			return text;
+		}
+
+		/**
+		 * Gets how many characters were replaced to fit the chosen tables
+		 *
+		 * @return the number of transliterated characters
+		 */
+		public int getTransliteratedCount() {
+			return transliterated;
+		}
+
+		/**
+		 * Gets the number of sms the text will be split into
+		 *
+		 * @return the message count
+		 */
+		public int getMessageCount() {
+			return details.msgCount;
+		}
+
+		/**
+		 * Gets the encoding along with the language and shift tables to use
+		 *
+		 * @return the encoding details of the chosen option
+		 */
+		public GsmAlphabet.TextEncodingDetails getEncodingDetails() {
+			return details;
+		}
+	}
+
+	/**
+	 * Finds the cheapest encoding among the tables enabled in GsmAlphabet, the same ones the platform picks from when
+	 * it encodes the text
+	 *
+	 * @param text
+	 *            is the text to send
+	 * @param transliterate
+	 *            is whether characters can be replaced with the ones from StripAccents
+	 * @return the encoding that takes the fewest messages
+	 */
+	public static Result optimize(String text, boolean transliterate) {
+		return optimize(text, transliterate, GsmAlphabet.getEnabledLanguageTables(), GsmAlphabet.getEnabledLanguageShiftTables());
+	}
+
+	/**
+	 * Finds the cheapest encoding among the given tables, the default gsm alphabet and extension table are always
+	 * tried
+	 *
+	 * @param text
+	 *            is the text to send
+	 * @param transliterate
+	 *            is whether characters can be replaced with the ones from StripAccents
+	 * @param languageTables
+	 *            is the list of locking shift tables that can be used
+	 * @param shiftTables
+	 *            is the list of single shift tables that can be used
+	 * @return the encoding that takes the fewest messages
+	 */
+	public static Result optimize(String text, boolean transliterate, int[] languageTables, int[] shiftTables) {
+		int[] languages = getUsableTables(languageTables, true);
+		int[] shifts = getUsableTables(shiftTables, false);
+		StripAccents.Table table = transliterate ? StripAccents.getTable() : null;
+
+		// septets and replaced characters for every table pair, -1 once the pair cannot encode the text
+		int[][] septets = new int[languages.length][shifts.length];
+		int[][] replaced = new int[languages.length][shifts.length];
+		int length = text.length();
+
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+
+			for (int l = 0; l < languages.length; l++) {
+				for (int s = 0; s < shifts.length; s++) {
+					if (septets[l][s] == -1)
+						continue;
+
+					int count = GsmAlphabet.countGsmSeptetsUsingTables(c, languages[l], shifts[s]);
+					if (count == -1 && table != null && table.isMapped(c)) {
+						count = countReplacement(table, c, languages[l], shifts[s]);
+						if (count != -1)
+							replaced[l][s]++;
+					}
+
+					if (count == -1)
+						septets[l][s] = -1;
+					else
+						septets[l][s] += count;
+				}
+			}
+		}
+
+		// ucs-2 keeps the text as it is, so it is the option to beat
+		GsmAlphabet.TextEncodingDetails best = new GsmAlphabet.TextEncodingDetails();
+		best.codeUnitSize = SmsConstants.ENCODING_16BIT;
+		best.codeUnitCount = length;
+		best.msgCount = EncodedText.getMessageCount(true, length);
+		best.codeUnitsRemaining = EncodedText.getCodeUnitsRemaining(true, length);
+		int bestReplaced = 0;
+
+		for (int l = 0; l < languages.length; l++) {
+			for (int s = 0; s < shifts.length; s++) {
+				if (septets[l][s] == -1)
+					continue;
+
+				GsmAlphabet.TextEncodingDetails ted = getDetails(septets[l][s], languages[l], shifts[s]);
+				if (ted.msgCount < best.msgCount || (ted.msgCount == best.msgCount && (replaced[l][s] < bestReplaced || (replaced[l][s] == bestReplaced && getRemainingBits(ted) > getRemainingBits(best))))) {
+					best = ted;
+					bestReplaced = replaced[l][s];
+				}
+			}
+		}
+
+		String result = text;
+		if (bestReplaced > 0)
+			result = replaceUnencodable(text, table, best.languageTable, best.languageShiftTable);
+
+		return new Result(result, bestReplaced, best);
+	}
+
+	/**
+	 * Gets the room left in the last message in bits, so that septets and ucs-2 code units can be compared
+	 */
+	private static int getRemainingBits(GsmAlphabet.TextEncodingDetails ted) {
+		return ted.codeUnitsRemaining * (ted.codeUnitSize == SmsConstants.ENCODING_7BIT ? 7 : 16);
+	}
+
+	/**
+	 * Keeps the tables that are defined, always starting with the default one
+	 */
+	private static int[] getUsableTables(int[] tables, boolean locking) {
+		int[] usable = new int[tables.length + 1];
+		int count = 1;
+
+		for (int table : tables) {
+			if (table != 0 && (locking ? GsmAlphabet.hasLanguageTable(table) : GsmAlphabet.hasLanguageShiftTable(table)))
+				usable[count++] = table;
+		}
+
+		int[] result = new int[count];
+		System.arraycopy(usable, 0, result, 0, count);
+		return result;
+	}
+
+	private static int countReplacement(StripAccents.Table table, char c, int languageTable, int shiftTable) {
+		if (table.multi == null || table.multi[c] == null)
+			return GsmAlphabet.countGsmSeptetsUsingTables(table.single[c], languageTable, shiftTable);
+
+		String to = table.multi[c];
+		int septets = 0;
+
+		for (int i = 0; i < to.length(); i++) {
+			int count = GsmAlphabet.countGsmSeptetsUsingTables(to.charAt(i), languageTable, shiftTable);
+			if (count == -1)
+				return -1;
+			septets += count;
+		}
+
+		return septets;
+	}
+
+	private static String replaceUnencodable(String text, StripAccents.Table table, int languageTable, int shiftTable) {
+		StringBuilder builder = new StringBuilder(text.length());
+
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+
+			if (GsmAlphabet.countGsmSeptetsUsingTables(c, languageTable, shiftTable) != -1)
+				builder.append(c);
+			else if (table.multi != null && table.multi[c] != null)
+				builder.append(table.multi[c]);
+			else
+				builder.append(table.single[c]);
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Works out the message count for a table pair the same way GsmAlphabet.countGsmSeptets does, including the
+	 * header septets needed to name non-default tables
+	 */
+	private static GsmAlphabet.TextEncodingDetails getDetails(int septets, int languageTable, int shiftTable) {
+		int udhLength;
+		if (languageTable != 0 && shiftTable != 0)
+			udhLength = GsmAlphabet.UDH_SEPTET_COST_LENGTH + GsmAlphabet.UDH_SEPTET_COST_TWO_SHIFT_TABLES;
+		else if (languageTable != 0 || shiftTable != 0)
+			udhLength = GsmAlphabet.UDH_SEPTET_COST_LENGTH + GsmAlphabet.UDH_SEPTET_COST_ONE_SHIFT_TABLE;
+		else
+			udhLength = 0;
+
+		GsmAlphabet.TextEncodingDetails ted = new GsmAlphabet.TextEncodingDetails();
+		ted.codeUnitSize = SmsConstants.ENCODING_7BIT;
+		ted.codeUnitCount = septets;
+		ted.languageTable = languageTable;
+		ted.languageShiftTable = shiftTable;
+
+		if (septets + udhLength > SmsConstants.MAX_USER_DATA_SEPTETS) {
+			if (udhLength == 0)
+				udhLength = GsmAlphabet.UDH_SEPTET_COST_LENGTH;
+			udhLength += GsmAlphabet.UDH_SEPTET_COST_CONCATENATED_MESSAGE;
+
+			int septetsPerMessage = SmsConstants.MAX_USER_DATA_SEPTETS - udhLength;
+			ted.msgCount = (septets + septetsPerMessage - 1) / septetsPerMessage;
+			ted.codeUnitsRemaining = ted.msgCount * septetsPerMessage - septets;
+		} else {
+			ted.msgCount = 1;
+			ted.codeUnitsRemaining = SmsConstants.MAX_USER_DATA_SEPTETS - udhLength - septets;
+		}
+
+		return ted;
+	}
+}
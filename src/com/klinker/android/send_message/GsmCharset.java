@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.klinker.android.send_message;
+
+import com.android.internal.telephony.GsmAlphabet;
+
+/**
+ * Tells whether text can be sent with the default gsm alphabet, ie. in 160 character messages. The characters of the
+ * default alphabet and its extension table are kept in a bitset, so every check is a couple of array reads per
+ * character and nothing is allocated. Safe to call from any thread, including on every keystroke from the ui.
+ *
+ * @author Jake Klinker
+ */
+public class GsmCharset {
+
+	// one bit per character up to the highest one the default tables can encode
+	private static final long[] ENCODABLE;
+
+	static {
+		int highest = 0;
+		for (int c = 0; c <= Character.MAX_VALUE; c++) {
+			if (GsmAlphabet.countGsmSeptetsUsingTables((char) c, 0, 0) > 0)
+				highest = c;
+		}
+
+		ENCODABLE = new long[(highest >> 6) + 1];
+		for (int c = 0; c <= highest; c++) {
+			if (GsmAlphabet.countGsmSeptetsUsingTables((char) c, 0, 0) > 0)
+				ENCODABLE[c >> 6] |= 1L << c;
+		}
+	}
+
+	/**
+	 * Checks a single character
+	 *
+	 * @param c
+	 *            is the character to check
+	 * @return true if the default gsm alphabet or its extension table holds the character
+	 */
+	public static boolean isEncodable(char c) {
+		int word = c >> 6;
+		return word < ENCODABLE.length && (ENCODABLE[word] & (1L << c)) != 0;
+	}
+
+	/**
+	 * Checks whether a whole text can be sent with the default gsm alphabet
+	 *
+	 * @param s
+	 *            is the text to check
+	 * @return true if every character is encodable
+	 */
+	public static boolean isEncodable(CharSequence s) {
+		return indexOfUnencodable(s, 0, s.length()) == -1;
+	}
+
+	/**
+	 * Finds the first character that forces a text into ucs-2
+	 *
+	 * @param s
+	 *            is the text to check
+	 * @return the index of the first character that cannot be encoded, or -1 if there is none
+	 */
+	public static int indexOfUnencodable(CharSequence s) {
+		return indexOfUnencodable(s, 0, s.length());
+	}
+
+	/**
+	 * Finds the first character in a range that forces a text into ucs-2
+	 *
+	 * @param s
+	 *            is the text to check
+	 * @param start
+	 *            is the index to start checking at
+	 * @param end
+	 *            is the index after the last character to check
+	 * @return the index of the first character that cannot be encoded, or -1 if there is none
+	 */
+	public static int indexOfUnencodable(CharSequence s, int start, int end) {
+		long[] encodable = ENCODABLE;
+
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			int word = c >> 6;
+
+			if (word >= encodable.length || (encodable[word] & (1L << c)) == 0)
+				return i;
+		}
+
+		return -1;
+	}
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2013 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.klinker.android.send_message;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+/**
+ * Encodes the images of an mms into jpegs on a worker pool, lowering the quality and then the resolution of the
+ * largest images until all of them fit into a byte budget, usually what is left of MmsConfig.getMaxMessageSize()
+ *
+ * @author Jake Klinker
+ */
+public class ImageEncoder {
+
+	private static final String TAG = "ImageEncoder";
+
+	public static final int DEFAULT_QUALITY = 90;
+	private static final int MIN_QUALITY = 40;
+	private static final int QUALITY_STEP = 15;
+	private static final float SCALE_STEP = 0.75f;
+	private static final int MIN_DIMENSION = 64;
+	private static final int MAX_PASSES = 10;
+
+	/**
+	 * Outcome of encoding a set of images
+	 */
+	public static class Result {
+		private final byte[][] images;
+		private final int passes;
+		private final boolean fits;
+
+		private Result(byte[][] images, int passes, boolean fits) {
+			this.images = images;
+			this.passes = passes;
+			this.fits = fits;
+		}
+
+		/**
+		 * Gets the encoded images, in the same order they were given
+		 *
+		 * @return an array of jpeg data
+		 */
+		public byte[][] getImages() {
+			return images;
+		}
+
+		/**
+		 * Gets the final size of every encoded image
+		 *
+		 * @return an array of sizes in bytes
+		 */
+		public int[] getSizes() {
+			int[] sizes = new int[images.length];
+			for (int i = 0; i < images.length; i++)
+				sizes[i] = images[i].length;
+			return sizes;
+		}
+
+		/**
+		 * Gets the combined size of every encoded image
+		 *
+		 * @return the total size in bytes
+		 */
+		public int getTotalSize() {
+			int total = 0;
+			for (int i = 0; i < images.length; i++)
+				total += images[i].length;
+			return total;
+		}
+
+		/**
+		 * Gets how many encode passes were needed, the first being the full quality one
+		 *
+		 * @return the number of passes
+		 */
+		public int getPasses() {
+			return passes;
+		}
+
+		/**
+		 * Checks whether the images ended up within the budget
+		 *
+		 * @return false if the images are still too large at the lowest quality and resolution tried
+		 */
+		public boolean fitsBudget() {
+			return fits;
+		}
+	}
+
+	private static class Encoding {
+		public Bitmap source;
+		public Bitmap scaled;
+		public int quality = DEFAULT_QUALITY;
+		public byte[] data;
+	}
+
+	/**
+	 * Encodes the images so that together they take at most budget bytes
+	 *
+	 * @param images
+	 *            is the array of images to encode
+	 * @param budget
+	 *            is the maximum number of bytes the images can take together
+	 * @return the encoded images along with how many passes it took
+	 */
+	public static Result encode(Bitmap[] images, int budget) {
+		final Encoding[] encodings = new Encoding[images.length];
+		for (int i = 0; i < images.length; i++) {
+			encodings[i] = new Encoding();
+			encodings[i].source = images[i];
+		}
+
+		List<Encoding> pending = new ArrayList<Encoding>();
+		for (Encoding encoding : encodings)
+			pending.add(encoding);
+
+		int passes = 0;
+		boolean fits = false;
+
+		try {
+			while (!pending.isEmpty()) {
+				runPass(pending);
+				passes++;
+
+				int total = 0;
+				for (Encoding encoding : encodings)
+					total += encoding.data.length;
+
+				if (total <= budget) {
+					fits = true;
+					break;
+				}
+
+				if (passes >= MAX_PASSES)
+					break;
+
+				pending = shrinkOversized(encodings, budget);
+			}
+		} finally {
+			for (Encoding encoding : encodings) {
+				if (encoding.scaled != null && encoding.scaled != encoding.source)
+					encoding.scaled.recycle();
+			}
+		}
+
+		byte[][] data = new byte[encodings.length][];
+		for (int i = 0; i < encodings.length; i++)
+			data[i] = encodings[i].data;
+
+		if (!fits)
+			Log.w(TAG, "images could not be encoded within " + budget + " bytes after " + passes + " passes");
+
+		return new Result(data, passes, fits);
+	}
+
+	/**
+	 * Picks the images that take more than their share of the budget and lowers their quality, or their resolution
+	 * once the quality cannot go any lower. Images already under their share keep their encoding and the room they
+	 * leave is shared among the others.
+	 */
+	private static List<Encoding> shrinkOversized(Encoding[] encodings, int budget) {
+		int remaining = budget;
+		int count = encodings.length;
+		List<Encoding> oversized = new ArrayList<Encoding>();
+
+		// settling an image can raise everyone else's share, so repeat until nothing else fits
+		boolean changed = true;
+		boolean[] settled = new boolean[encodings.length];
+		int share = remaining;
+		while (changed && count > 0) {
+			changed = false;
+			share = remaining / count;
+
+			for (int i = 0; i < encodings.length; i++) {
+				if (!settled[i] && encodings[i].data.length <= share) {
+					settled[i] = true;
+					remaining -= encodings[i].data.length;
+					count--;
+					changed = true;
+				}
+			}
+		}
+
+		for (int i = 0; i < encodings.length; i++) {
+			if (settled[i])
+				continue;
+
+			Encoding encoding = encodings[i];
+			if (encoding.quality - QUALITY_STEP >= MIN_QUALITY) {
+				encoding.quality -= QUALITY_STEP;
+				oversized.add(encoding);
+			} else if (scaleDown(encoding, share)) {
+				// keep the lowered quality, going back up would undo most of what the smaller size saves
+				oversized.add(encoding);
+			}
+		}
+
+		return oversized;
+	}
+
+	/**
+	 * Scales an image down so that its encoded size lands near its share, assuming the size follows the pixel count.
+	 * Every step shrinks the image by at least SCALE_STEP, short of MIN_DIMENSION, so an image over its share keeps
+	 * getting smaller.
+	 */
+	private static boolean scaleDown(Encoding encoding, int share) {
+		Bitmap current = encoding.scaled != null ? encoding.scaled : encoding.source;
+		float scale = SCALE_STEP;
+		if (share > 0 && encoding.data.length > 0)
+			scale = Math.min(SCALE_STEP, (float) Math.sqrt((double) share / encoding.data.length));
+
+		// never go below the smallest dimension, keeping the aspect ratio
+		scale = Math.max(scale, (float) MIN_DIMENSION / Math.min(current.getWidth(), current.getHeight()));
+
+		int width = (int) (current.getWidth() * scale);
+		int height = (int) (current.getHeight() * scale);
+
+		if (width >= current.getWidth() || height >= current.getHeight())
+			return false;
+
+		Bitmap scaled = Bitmap.createScaledBitmap(current, width, height, true);
+		if (encoding.scaled != null && encoding.scaled != encoding.source)
+			encoding.scaled.recycle();
+
+		encoding.scaled = scaled;
+		return true;
+	}
+
+	private static void runPass(List<Encoding> pending) {
+		if (pending.size() == 1) {
+			compress(pending.get(0));
+			return;
+		}
+
+		final AtomicBoolean aborted = new AtomicBoolean();
+		final CountDownLatch finished = new CountDownLatch(pending.size());
+
+		List<Future<?>> futures = new ArrayList<Future<?>>(pending.size());
+		for (final Encoding encoding : pending) {
+			futures.add(SendExecutor.getEncodeExecutor().submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					try {
+						if (!aborted.get())
+							compress(encoding);
+						return null;
+					} finally {
+						finished.countDown();
+					}
+				}
+			}));
+		}
+
+		try {
+			for (Future<?> future : futures)
+				future.get();
+		} catch (InterruptedException e) {
+			abort(aborted, finished);
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while encoding images", e);
+		} catch (ExecutionException e) {
+			abort(aborted, finished);
+			throw new IllegalStateException("Unable to encode image", e.getCause());
+		}
+	}
+
+	/**
+	 * Stops the tasks of a failed pass that have not started and waits for the running ones, so that none of them is
+	 * still compressing a bitmap when it gets recycled
+	 */
+	private static void abort(AtomicBoolean aborted, CountDownLatch finished) {
+		aborted.set(true);
+
+		boolean interrupted = false;
+		while (true) {
+			try {
+				finished.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private static void compress(Encoding encoding) {
+		Bitmap bitmap = encoding.scaled != null ? encoding.scaled : encoding.source;
+		ByteArrayOutputStream stream = new ByteArrayOutputStream(encoding.data != null ? encoding.data.length : 32 * 1024);
+		bitmap.compress(Bitmap.CompressFormat.JPEG, encoding.quality, stream);
+		encoding.data = stream.toByteArray();
+	}
+}
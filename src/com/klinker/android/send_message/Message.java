@@ -17,8 +17,12 @@
 package com.klinker.android.send_message;
 
 import android.graphics.Bitmap;
+import android.net.Uri;
+
+import com.google.android.mms.MMSPart;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 
 /**
  * Class to hold all relevant message information to send
@@ -33,6 +37,8 @@ public class Message {
 	private Bitmap[] images;
 	private byte[] media;
 	private String mediaMimeType;
+	private MMSPart[] attachments = new MMSPart[0];
+	private volatile EncodedText encoded;
 
 	/**
 	 * Default constructor
@@ -320,6 +326,43 @@ public class Message {
 		this.mediaMimeType = mimeType;
 	}
 
+	/**
+	 * Adds an image, audio or video attachment that is read from a content or file uri while the mms is composed,
+	 * instead of being held in memory like images and media
+	 * 
+	 * @param uri
+	 *            is the uri of the data to send
+	 * @param mimeType
+	 *            is the mimeType of the data, eg. image/jpeg or video/3gpp
+	 */
+	public void addAttachment(Uri uri, String mimeType) {
+		MMSPart part = new MMSPart();
+		part.MimeType = mimeType;
+		part.Name = mimeType.split("/")[0] + this.attachments.length;
+		part.Path = uri;
+
+		MMSPart[] temp = this.attachments;
+		this.attachments = new MMSPart[temp.length + 1];
+
+		for (int i = 0; i < temp.length; i++) {
+			this.attachments[i] = temp[i];
+		}
+
+		this.attachments[temp.length] = part;
+	}
+
+	/**
+	 * Adds an attachment that is read from a file while the mms is composed
+	 * 
+	 * @param file
+	 *            is the file to send
+	 * @param mimeType
+	 *            is the mimeType of the file
+	 */
+	public void addAttachment(File file, String mimeType) {
+		addAttachment(Uri.fromFile(file), mimeType);
+	}
+
 	/**
 	 * Sets the subject
 	 * 
@@ -383,6 +426,28 @@ public class Message {
 		return this.text;
 	}
 
+	/**
+	 * Gets the text as it will be sent in an sms, with the signature added and accents stripped if the settings ask
+	 * for it, along with its segment counts. The result is kept until the text or those settings change, so checking
+	 * whether the message needs to be mms and then sending it only processes the body once.
+	 * 
+	 * @param settings
+	 *            is the settings object the message will be sent with
+	 * @return the encoded body of the message
+	 */
+	public EncodedText getEncodedText(Settings settings) {
+		String signature = settings.getSignature();
+		StripAccents.Table table = settings.getStripUnicode() ? StripAccents.getTable() : null;
+
+		EncodedText encoded = this.encoded;
+		if (encoded == null || encoded.source != this.text || encoded.table != table || !encoded.signature.equals(signature)) {
+			encoded = EncodedText.encode(this.text, signature, table != null);
+			this.encoded = encoded;
+		}
+
+		return encoded;
+	}
+
 	/**
 	 * Gets the addresses of the message
 	 * 
@@ -419,6 +484,15 @@ public class Message {
 		return this.mediaMimeType;
 	}
 
+	/**
+	 * Gets the attachments that are streamed from their uri when the message is sent
+	 * 
+	 * @return an array of parts holding the uri and mimetype of each attachment
+	 */
+	public MMSPart[] getAttachments() {
+		return this.attachments;
+	}
+
 	/**
 	 * Gets the subject of the mms message
 	 * 
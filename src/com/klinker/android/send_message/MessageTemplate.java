@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.klinker.android.send_message;
+
+import com.google.android.mms.MMSPart;
+
+/**
+ * An mms whose attachments, smil and pdu body have already been encoded so it can be sent to many recipients
+ * without doing that work again. Created with Transaction.createTemplate and sent with Transaction.sendTemplate.
+ * 
+ * @author Jake Klinker
+ */
+public class MessageTemplate {
+
+	private final Message message;
+	private final MMSPart[] parts;
+	private final byte[] smil;
+	private final byte[] body;
+
+	MessageTemplate(Message message, MMSPart[] parts, byte[] smil, byte[] body) {
+		this.message = message;
+		this.parts = parts;
+		this.smil = smil;
+		this.body = body;
+	}
+
+	/**
+	 * Gets the message the template was created from
+	 * 
+	 * @return the original message
+	 */
+	public Message getMessage() {
+		return this.message;
+	}
+
+	/**
+	 * Gets the size of the encoded body that every recipient is sent
+	 * 
+	 * @return the size of the body in bytes
+	 */
+	public int getBodySize() {
+		return this.body.length;
+	}
+
+	MMSPart[] getParts() {
+		return this.parts;
+	}
+
+	byte[] getSmil() {
+		return this.smil;
+	}
+
+	byte[] getBody() {
+		return this.body;
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2013 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.klinker.android.send_message;
+
+import android.net.Uri;
+
+import com.google.android.mms.MmsException;
+
+/**
+ * Thrown when an mms was accepted by the MMSC but could not be stored in or moved to the sent box. The message is
+ * out, so it should not be sent again.
+ *
+ * @author Jake Klinker
+ */
+public class NotRecordedException extends MmsException {
+	private static final long serialVersionUID = 4618043217635790144L;
+
+	private final Uri uri;
+
+	/**
+	 * Constructor
+	 *
+	 * @param uri
+	 *            is the uri of the message in the outbox, or null if it was never stored
+	 * @param cause
+	 *            is the error thrown while storing or moving the message
+	 */
+	public NotRecordedException(Uri uri, Throwable cause) {
+		super("Message was sent but could not be recorded", cause);
+		this.uri = uri;
+	}
+
+	/**
+	 * Gets the uri the message was left at
+	 *
+	 * @return the uri of the message in the outbox, or null if it was never stored
+	 */
+	public Uri getUri() {
+		return this.uri;
+	}
+}
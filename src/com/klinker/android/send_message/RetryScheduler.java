@@ -0,0 +1,346 @@
+/*
+ * Copyright 2013 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.klinker.android.send_message;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.PowerManager;
+import android.provider.Telephony.Mms;
+import android.provider.Telephony.MmsSms;
+import android.provider.Telephony.MmsSms.PendingMessages;
+import android.util.Log;
+
+import com.google.android.mms.pdu_alt.PduHeaders;
+import com.google.android.mms.pdu_alt.PduPersister;
+import com.google.android.mms.util_alt.SqliteWrapper;
+
+/**
+ * Resends mms messages that failed to upload. Failed messages get their pending row pushed back with an exponential
+ * backoff plus jitter, and a single alarm is kept for the earliest due message, rounded up so that messages falling
+ * due close together are handled by one wakeup. When the alarm fires, every due message is resent in due_time order,
+ * with at most a few uploads running against the same MMSC at once. A partial wake lock is held until every resend
+ * started by the alarm has finished. Messages that run out of retries are moved to the failed box.
+ *
+ * To receive the alarm, register RetryReceiver in your manifest for the action [your package name].MMS_RETRY, and
+ * request the android.permission.WAKE_LOCK permission
+ *
+ * @author Jake Klinker
+ */
+public class RetryScheduler {
+
+	private static final String TAG = "RetryScheduler";
+
+	public static final String MMS_RETRY = ".MMS_RETRY";
+
+	public static final int DEFAULT_MAX_RETRIES = 6;
+	public static final int DEFAULT_MAX_PER_MMSC = 2;
+
+	private static final long BASE_DELAY = 30 * 1000;
+	private static final long MAX_DELAY = 30 * 60 * 1000;
+	private static final long BATCH_WINDOW = 15 * 1000;
+
+	private static RetryScheduler sInstance;
+
+	private final Context mContext;
+	private final Random mRandom = new Random();
+	private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+	private final HashMap<String, Semaphore> mMmscPermits = new HashMap<String, Semaphore>();
+	private final HashSet<Long> mInFlight = new HashSet<Long>();
+	private final PowerManager.WakeLock mWakeLock;
+	private int mMaxRetries = DEFAULT_MAX_RETRIES;
+	private int mMaxPerMmsc = DEFAULT_MAX_PER_MMSC;
+
+	private RetryScheduler(Context context) {
+		mContext = context.getApplicationContext();
+
+		// counted, so it is held as long as any drain or resend is still running
+		PowerManager powerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+		mWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+		mWakeLock.setReferenceCounted(true);
+	}
+
+	/**
+	 * Gets the scheduler for this application
+	 *
+	 * @param context
+	 *            is the context of the activity or service
+	 * @return the shared scheduler
+	 */
+	public static synchronized RetryScheduler getInstance(Context context) {
+		if (sInstance == null)
+			sInstance = new RetryScheduler(context);
+
+		return sInstance;
+	}
+
+	/**
+	 * Sets how many times a message is retried before it is moved to the failed box
+	 *
+	 * @param maxRetries
+	 *            is the number of retries
+	 */
+	public void setMaxRetries(int maxRetries) {
+		mMaxRetries = maxRetries;
+	}
+
+	/**
+	 * Sets how many messages can be resent to the same MMSC at once, takes effect for MMSCs not used yet
+	 *
+	 * @param maxPerMmsc
+	 *            is the number of concurrent uploads
+	 */
+	public void setMaxPerMmsc(int maxPerMmsc) {
+		mMaxPerMmsc = maxPerMmsc;
+	}
+
+	/**
+	 * Records a failed upload for a message in the outbox and schedules its next attempt
+	 *
+	 * @param uri
+	 *            is the uri of the message that failed
+	 */
+	public void onSendFailed(Uri uri) {
+		long msgId = ContentUris.parseId(uri);
+
+		Uri.Builder uriBuilder = PendingMessages.CONTENT_URI.buildUpon();
+		uriBuilder.appendQueryParameter("protocol", "mms");
+		uriBuilder.appendQueryParameter("message", String.valueOf(msgId));
+
+		Cursor cursor = SqliteWrapper.query(mContext, mContext.getContentResolver(), uriBuilder.build(), null, null, null, null);
+		if (cursor == null)
+			return;
+
+		long id = -1;
+		int retryIndex = 1;
+		try {
+			if (cursor.moveToFirst()) {
+				id = cursor.getLong(cursor.getColumnIndexOrThrow(PendingMessages._ID));
+				retryIndex = cursor.getInt(cursor.getColumnIndexOrThrow(PendingMessages.RETRY_INDEX)) + 1;
+			}
+		} finally {
+			cursor.close();
+		}
+
+		long now = System.currentTimeMillis();
+
+		ContentValues values = new ContentValues(8);
+		values.put(PendingMessages.RETRY_INDEX, retryIndex);
+		values.put(PendingMessages.LAST_TRY, now);
+
+		if (retryIndex <= mMaxRetries) {
+			values.put(PendingMessages.ERROR_TYPE, MmsSms.ERR_TYPE_TRANSPORT_FAILURE);
+			values.put(PendingMessages.DUE_TIME, now + getDelay(retryIndex));
+		} else {
+			Log.w(TAG, "giving up on " + uri + " after " + mMaxRetries + " retries");
+			values.put(PendingMessages.ERROR_TYPE, MmsSms.ERR_TYPE_GENERIC_PERMANENT);
+		}
+
+		if (id >= 0) {
+			SqliteWrapper.update(mContext, mContext.getContentResolver(), PendingMessages.CONTENT_URI, values, PendingMessages._ID + "=" + id, null);
+		} else {
+			// the provider only adds a pending row when a message is moved into the outbox, and ours are written
+			// straight to it, so the first failure has to add the row itself
+			values.put(PendingMessages.PROTO_TYPE, MmsSms.MMS_PROTO);
+			values.put(PendingMessages.MSG_ID, msgId);
+			values.put(PendingMessages.MSG_TYPE, PduHeaders.MESSAGE_TYPE_SEND_REQ);
+			values.put(PendingMessages.ERROR_CODE, 0);
+
+			if (SqliteWrapper.insert(mContext, mContext.getContentResolver(), PendingMessages.CONTENT_URI, values) == null)
+				Log.w(TAG, "unable to add a pending row for " + uri);
+		}
+
+		if (retryIndex > mMaxRetries) {
+			ContentValues failed = new ContentValues(1);
+			failed.put(Mms.MESSAGE_BOX, Mms.MESSAGE_BOX_FAILED);
+
+			if (SqliteWrapper.update(mContext, mContext.getContentResolver(), uri, failed, null, null) != 1)
+				Log.w(TAG, "unable to move " + uri + " to the failed box");
+		}
+
+		scheduleNextWakeup();
+	}
+
+	/**
+	 * Gets the delay before the given retry, doubling with each retry up to a maximum. Half of it is random so that
+	 * messages which failed together do not all come back at the same moment.
+	 */
+	private long getDelay(int retryIndex) {
+		long delay = BASE_DELAY << Math.min(retryIndex - 1, 16);
+		if (delay > MAX_DELAY || delay <= 0)
+			delay = MAX_DELAY;
+
+		long half = delay / 2;
+		synchronized (mRandom) {
+			return half + (long) (mRandom.nextDouble() * half);
+		}
+	}
+
+	/**
+	 * Sets the alarm for the earliest pending message, replacing any alarm set before
+	 */
+	public void scheduleNextWakeup() {
+		Cursor cursor = PduPersister.getPduPersister(mContext).getPendingMessages(Long.MAX_VALUE);
+		if (cursor == null)
+			return;
+
+		long dueTime = -1;
+		try {
+			int columnMsgType = cursor.getColumnIndexOrThrow(PendingMessages.MSG_TYPE);
+
+			// downloads are left to whoever handles them, so they must not keep the alarm firing
+			while (cursor.moveToNext()) {
+				if (cursor.getInt(columnMsgType) == PduHeaders.MESSAGE_TYPE_SEND_REQ) {
+					dueTime = cursor.getLong(cursor.getColumnIndexOrThrow(PendingMessages.DUE_TIME));
+					break;
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+
+		AlarmManager alarmManager = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+		PendingIntent retryPI = PendingIntent.getBroadcast(mContext, 0, new Intent(mContext.getPackageName() + MMS_RETRY), PendingIntent.FLAG_UPDATE_CURRENT);
+
+		if (dueTime < 0) {
+			alarmManager.cancel(retryPI);
+			return;
+		}
+
+		// round up so that messages falling due within the same window share one wakeup
+		long wakeup = ((Math.max(dueTime, System.currentTimeMillis()) + BATCH_WINDOW - 1) / BATCH_WINDOW) * BATCH_WINDOW;
+		alarmManager.set(AlarmManager.RTC_WAKEUP, wakeup, retryPI);
+	}
+
+	/**
+	 * Resends every message that is due, on background threads. The device is kept awake from this call until the
+	 * last of those resends has finished.
+	 */
+	public void drain() {
+		mWakeLock.acquire();
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					drainDueMessages();
+				} finally {
+					mWakeLock.release();
+				}
+			}
+		});
+	}
+
+	private void drainDueMessages() {
+		Cursor cursor = PduPersister.getPduPersister(mContext).getPendingMessages(System.currentTimeMillis());
+		if (cursor == null)
+			return;
+
+		ArrayList<Long> due = new ArrayList<Long>();
+		try {
+			int columnMsgId = cursor.getColumnIndexOrThrow(PendingMessages.MSG_ID);
+			int columnMsgType = cursor.getColumnIndexOrThrow(PendingMessages.MSG_TYPE);
+
+			// only resend send requests, downloads are left to whoever handles them
+			while (cursor.moveToNext()) {
+				if (cursor.getInt(columnMsgType) == PduHeaders.MESSAGE_TYPE_SEND_REQ)
+					due.add(cursor.getLong(columnMsgId));
+			}
+		} finally {
+			cursor.close();
+		}
+
+		if (due.isEmpty()) {
+			scheduleNextWakeup();
+			return;
+		}
+
+		final Transaction transaction = new Transaction(mContext);
+		final Semaphore permits = getPermits(transaction.getTransactionSettings().getMmscUrl());
+
+		for (final Long msgId : due) {
+			synchronized (mInFlight) {
+				if (mInFlight.contains(msgId))
+					continue;
+			}
+
+			// anything over the cap stays due and is picked up when one of the running uploads finishes
+			if (!permits.tryAcquire())
+				break;
+
+			synchronized (mInFlight) {
+				mInFlight.add(msgId);
+			}
+
+			// taken before the caller lets go of its own hold, so the device cannot sleep in between
+			mWakeLock.acquire();
+			mExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					Uri uri = ContentUris.withAppendedId(Mms.CONTENT_URI, msgId);
+					boolean sent = false;
+
+					try {
+						try {
+							transaction.resendMmsMessage(uri);
+							sent = true;
+						} catch (Exception e) {
+							Log.e(TAG, "retry of " + uri + " failed", e);
+							onSendFailed(uri);
+						} finally {
+							synchronized (mInFlight) {
+								mInFlight.remove(msgId);
+							}
+							permits.release();
+						}
+
+						// the row is gone or pushed back now, so look for whatever is due next
+						if (sent)
+							drainDueMessages();
+					} finally {
+						mWakeLock.release();
+					}
+				}
+			});
+		}
+	}
+
+	private Semaphore getPermits(String mmsc) {
+		String key = mmsc != null ? mmsc : "";
+
+		synchronized (mMmscPermits) {
+			Semaphore permits = mMmscPermits.get(key);
+			if (permits == null) {
+				permits = new Semaphore(mMaxPerMmsc);
+				mMmscPermits.put(key, permits);
+			}
+			return permits;
+		}
+	}
+}
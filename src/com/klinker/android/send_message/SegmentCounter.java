@@ -0,0 +1,236 @@
+/*
+ * Copyright 2013 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.klinker.android.send_message;
+
+import com.android.internal.telephony.GsmAlphabet;
+import com.android.internal.telephony.SmsConstants;
+
+/**
+ * Keeps the sms segment count of a message that is being typed up to date without rescanning the whole text. Only
+ * the characters touched by an edit are looked at, so it can be called on every keystroke, eg. from a TextWatcher.
+ * Counts are kept for every language table pair enabled in GsmAlphabet when the counter is made, and the pair that
+ * needs the fewest messages is used, switching to ucs-2 as soon as no pair can encode the text. This is the same
+ * choice Utils.getNumPages and EncodedText make.
+ *
+ * @author Jake Klinker
+ */
+public class SegmentCounter {
+
+	private final boolean stripUnicode;
+	private final StringBuilder text = new StringBuilder();
+
+	// language and shift table of each pair that is counted, the default tables first
+	private final int[][] pairs;
+
+	// totals over the text as it will be sent, ie. after stripping accents if enabled, per pair
+	private final int[] septets;
+	private final int[] unencodable;
+	private int codeUnits;
+
+	/**
+	 * Constructor
+	 *
+	 * @param settings
+	 *            is the settings object, used to check whether accents are stripped before sending
+	 */
+	public SegmentCounter(Settings settings) {
+		this(settings.getStripUnicode());
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param stripUnicode
+	 *            is whether accents are stripped before sending
+	 */
+	public SegmentCounter(boolean stripUnicode) {
+		this.stripUnicode = stripUnicode;
+		this.pairs = GsmAlphabet.getEnabledLanguagePairs();
+		this.septets = new int[pairs.length];
+		this.unencodable = new int[pairs.length];
+	}
+
+	/**
+	 * Replaces the whole text
+	 *
+	 * @param s
+	 *            is the new text
+	 */
+	public void setText(CharSequence s) {
+		replace(0, text.length(), s);
+	}
+
+	/**
+	 * Adds text to the end
+	 *
+	 * @param s
+	 *            is the text that was typed
+	 */
+	public void append(CharSequence s) {
+		replace(text.length(), text.length(), s);
+	}
+
+	/**
+	 * Removes a range of the text
+	 *
+	 * @param start
+	 *            is the index of the first character removed
+	 * @param end
+	 *            is the index after the last character removed
+	 */
+	public void delete(int start, int end) {
+		replace(start, end, "");
+	}
+
+	/**
+	 * Replaces a range of the text, which covers inserts (start == end) and deletes (an empty s) as well
+	 *
+	 * @param start
+	 *            is the index of the first character replaced
+	 * @param end
+	 *            is the index after the last character replaced
+	 * @param s
+	 *            is the text to put in its place
+	 */
+	public void replace(int start, int end, CharSequence s) {
+		if (start < 0 || end > text.length() || start > end)
+			throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + text.length());
+
+		if (start < end)
+			count(text.substring(start, end), -1);
+
+		if (s.length() > 0)
+			count(s.toString(), 1);
+
+		text.replace(start, end, s.toString());
+	}
+
+	/**
+	 * Adds or removes the counts of a piece of text
+	 */
+	private void count(String s, int sign) {
+		if (stripUnicode)
+			s = StripAccents.stripAccents(s);
+
+		codeUnits += sign * s.length();
+
+		for (int p = 0; p < pairs.length; p++) {
+			int languageTable = pairs[p][0];
+			int languageShiftTable = pairs[p][1];
+
+			// the whole piece can usually be counted in one go, only look at single characters when some are unencodable
+			int count = GsmAlphabet.countGsmSeptetsUsingTables(s, false, languageTable, languageShiftTable);
+			if (count != -1) {
+				septets[p] += sign * count;
+				continue;
+			}
+
+			for (int i = 0; i < s.length(); i++) {
+				count = GsmAlphabet.countGsmSeptetsUsingTables(s.charAt(i), languageTable, languageShiftTable);
+				if (count != -1)
+					septets[p] += sign * count;
+				else
+					unencodable[p] += sign;
+			}
+		}
+	}
+
+	/**
+	 * Picks the pair the text is sent with, the one needing the fewest messages and then leaving the most room, or
+	 * null if no pair can encode the text
+	 */
+	private GsmAlphabet.TextEncodingDetails getSeptetDetails() {
+		GsmAlphabet.TextEncodingDetails best = null;
+
+		for (int p = 0; p < pairs.length; p++) {
+			if (unencodable[p] > 0)
+				continue;
+
+			GsmAlphabet.TextEncodingDetails ted = GsmAlphabet.getSeptetEncodingDetails(septets[p], pairs[p][0], pairs[p][1]);
+			if (best == null || ted.msgCount < best.msgCount || (ted.msgCount == best.msgCount && ted.codeUnitsRemaining > best.codeUnitsRemaining))
+				best = ted;
+		}
+
+		return best;
+	}
+
+	/**
+	 * Gets the text as it has been edited so far, before stripping accents
+	 *
+	 * @return the current text
+	 */
+	public String getText() {
+		return text.toString();
+	}
+
+	/**
+	 * Gets the encoding the text will be sent with
+	 *
+	 * @return SmsConstants.ENCODING_7BIT or SmsConstants.ENCODING_16BIT
+	 */
+	public int getCodeUnitSize() {
+		return getSeptetDetails() == null ? SmsConstants.ENCODING_16BIT : SmsConstants.ENCODING_7BIT;
+	}
+
+	/**
+	 * Gets the number of code units the text takes, septets for the gsm alphabet and characters for ucs-2
+	 *
+	 * @return the code unit count
+	 */
+	public int getCodeUnitCount() {
+		GsmAlphabet.TextEncodingDetails ted = getSeptetDetails();
+		return ted == null ? codeUnits : ted.codeUnitCount;
+	}
+
+	/**
+	 * Gets the number of sms the text will be split into
+	 *
+	 * @return the message count, at least 1
+	 */
+	public int getMessageCount() {
+		GsmAlphabet.TextEncodingDetails ted = getSeptetDetails();
+		return ted == null ? EncodedText.getMessageCount(true, codeUnits) : ted.msgCount;
+	}
+
+	/**
+	 * Gets the number of code units that can still be typed before another sms is needed
+	 *
+	 * @return the remaining code units in the last message
+	 */
+	public int getCodeUnitsRemaining() {
+		GsmAlphabet.TextEncodingDetails ted = getSeptetDetails();
+		return ted == null ? EncodedText.getCodeUnitsRemaining(true, codeUnits) : ted.codeUnitsRemaining;
+	}
+
+	/**
+	 * Gets the counts in the same form SmsMessage.calculateLength builds them
+	 *
+	 * @return the encoding details of the current text
+	 */
+	public GsmAlphabet.TextEncodingDetails getEncodingDetails() {
+		GsmAlphabet.TextEncodingDetails ted = getSeptetDetails();
+		if (ted != null)
+			return ted;
+
+		ted = new GsmAlphabet.TextEncodingDetails();
+		ted.msgCount = EncodedText.getMessageCount(true, codeUnits);
+		ted.codeUnitCount = codeUnits;
+		ted.codeUnitsRemaining = EncodedText.getCodeUnitsRemaining(true, codeUnits);
+		ted.codeUnitSize = SmsConstants.ENCODING_16BIT;
+		return ted;
+	}
+}
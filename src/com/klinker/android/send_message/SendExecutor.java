@@ -0,0 +1,238 @@
+/*
+ * Copyright 2013 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.klinker.android.send_message;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool used by Transaction.sendNewMessageAsync. Messages are composed on one set of threads and uploaded to
+ * the MMSC on another, so the compose work of one message overlaps with the network send of the one before it. A
+ * third set writes outgoing mms to the outbox while they upload, for synchronous sends as well. At most concurrency +
+ * queueSize messages are accepted at once; further submissions block until one of them finishes.
+ *
+ * @author Jake Klinker
+ */
+public class SendExecutor {
+
+	public static final int DEFAULT_CONCURRENCY = 2;
+	public static final int DEFAULT_QUEUE_SIZE = 16;
+
+	private static SendExecutor sDefault;
+	private static ExecutorService sEncodeExecutor;
+
+	private final ExecutorService mComposeExecutor;
+	private final ExecutorService mNetworkExecutor;
+	private final ExecutorService mPersistExecutor;
+	private final Semaphore mPermits;
+
+	/**
+	 * Callback notified once a message sent asynchronously has finished
+	 */
+	public interface Callback {
+		/**
+		 * Called on a worker thread when the message has been sent or has failed
+		 *
+		 * @param result
+		 *            is the outcome of the send
+		 */
+		public void onComplete(SendResult result);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param concurrency
+	 *            is the number of messages that can be composed, and separately uploaded, at the same time
+	 * @param queueSize
+	 *            is the number of messages that can wait for a worker before submissions start blocking
+	 */
+	public SendExecutor(int concurrency, int queueSize) {
+		if (concurrency < 1)
+			throw new IllegalArgumentException("concurrency must be at least 1");
+		if (queueSize < 0)
+			throw new IllegalArgumentException("queueSize must not be negative");
+
+		mNetworkExecutor = Executors.newFixedThreadPool(concurrency, new NamedThreadFactory("SendExecutor-network"));
+		mPersistExecutor = Executors.newFixedThreadPool(concurrency, new NamedThreadFactory("SendExecutor-persist"));
+
+		// compose tasks hand their upload and outbox write to the other threads, so those only stop once composing has
+		mComposeExecutor = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("SendExecutor-compose")) {
+			@Override
+			protected void terminated() {
+				super.terminated();
+				mNetworkExecutor.shutdown();
+				mPersistExecutor.shutdown();
+			}
+		};
+		mPermits = new Semaphore(concurrency + queueSize, true);
+	}
+
+	/**
+	 * Gets the shared executor used by transactions that have not been given their own
+	 *
+	 * @return the default executor
+	 */
+	public static synchronized SendExecutor getDefault() {
+		if (sDefault == null)
+			sDefault = new SendExecutor(DEFAULT_CONCURRENCY, DEFAULT_QUEUE_SIZE);
+
+		return sDefault;
+	}
+
+	/**
+	 * Gets the pool ImageEncoder and SmsEncoder split their work over, one thread per processor shared by every
+	 * executor. Its daemon threads exit when they have been idle for a while, so it never has to be shut down.
+	 *
+	 * @return the shared encode pool
+	 */
+	static synchronized ExecutorService getEncodeExecutor() {
+		if (sEncodeExecutor == null) {
+			int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("SendExecutor-encode"));
+			executor.allowCoreThreadTimeOut(true);
+			sEncodeExecutor = executor;
+		}
+
+		return sEncodeExecutor;
+	}
+
+	/**
+	 * Stops accepting new messages, letting the ones already submitted finish. Messages submitted afterwards complete
+	 * right away with a RejectedExecutionException as their error.
+	 */
+	public void shutdown() {
+		mComposeExecutor.shutdown();
+	}
+
+	/**
+	 * Gets the number of messages that can still be submitted without blocking
+	 *
+	 * @return the free slots in the queue
+	 */
+	public int getAvailableSlots() {
+		return mPermits.availablePermits();
+	}
+
+	SendFuture acquire(Message message, Callback callback) throws InterruptedException {
+		mPermits.acquire();
+		return new SendFuture(message, callback);
+	}
+
+	void executeCompose(Runnable task) {
+		mComposeExecutor.execute(task);
+	}
+
+	void executeNetwork(Runnable task) {
+		mNetworkExecutor.execute(task);
+	}
+
+	<T> Future<T> submitPersist(Callable<T> task) {
+		return mPersistExecutor.submit(task);
+	}
+
+	/**
+	 * Future handed back to the caller, completed by whichever stage finishes the message
+	 */
+	class SendFuture implements Future<SendResult> {
+		private final Message mMessage;
+		private final Callback mCallback;
+		private final CountDownLatch mDone = new CountDownLatch(1);
+		private volatile SendResult mResult;
+
+		private SendFuture(Message message, Callback callback) {
+			mMessage = message;
+			mCallback = callback;
+		}
+
+		Message getMessage() {
+			return mMessage;
+		}
+
+		void complete(SendResult result) {
+			synchronized (this) {
+				if (mResult != null)
+					return;
+
+				mResult = result;
+			}
+
+			mPermits.release();
+			mDone.countDown();
+
+			if (mCallback != null)
+				mCallback.onComplete(result);
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			// once a message is queued the outbox row may already exist, so it has to run to completion
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public boolean isDone() {
+			return mDone.getCount() == 0;
+		}
+
+		@Override
+		public SendResult get() throws InterruptedException, ExecutionException {
+			mDone.await();
+			return mResult;
+		}
+
+		@Override
+		public SendResult get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			if (!mDone.await(timeout, unit))
+				throw new TimeoutException();
+
+			return mResult;
+		}
+	}
+
+	private static class NamedThreadFactory implements ThreadFactory {
+		private final String mName;
+		private final AtomicInteger mCount = new AtomicInteger();
+
+		public NamedThreadFactory(String name) {
+			mName = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, mName + "-" + mCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.klinker.android.send_message;
+
+import android.net.Uri;
+
+/**
+ * Outcome of sending a single message, holding either the uri of the stored message or the error that stopped it
+ *
+ * @author Jake Klinker
+ */
+public class SendResult {
+
+	private Message message;
+	private Uri uri;
+	private Exception error;
+	private boolean sent;
+
+	/**
+	 * Constructor
+	 *
+	 * @param message
+	 *            is the message that was sent
+	 * @param uri
+	 *            is the uri of the message in the database, or null if it could not be stored
+	 * @param error
+	 *            is the error that stopped the message, or null if it was handed off successfully
+	 */
+	public SendResult(Message message, Uri uri, Exception error) {
+		this(message, uri, error, error == null);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param message
+	 *            is the message that was sent
+	 * @param uri
+	 *            is the uri of the message in the database, or null if it could not be stored
+	 * @param error
+	 *            is the error that stopped the message, or null if it was handed off successfully
+	 * @param sent
+	 *            is true if the message went out even though an error was recorded afterwards
+	 */
+	public SendResult(Message message, Uri uri, Exception error, boolean sent) {
+		this.message = message;
+		this.uri = uri;
+		this.error = error;
+		this.sent = sent;
+	}
+
+	/**
+	 * Gets the message this result belongs to
+	 *
+	 * @return the message that was sent
+	 */
+	public Message getMessage() {
+		return this.message;
+	}
+
+	/**
+	 * Gets the uri of the message in the sms or mms outbox
+	 *
+	 * @return the uri of the stored message, or null if it was never stored
+	 */
+	public Uri getUri() {
+		return this.uri;
+	}
+
+	/**
+	 * Gets the error that stopped the message from being sent
+	 *
+	 * @return the exception thrown while sending, or null if there was none
+	 */
+	public Exception getError() {
+		return this.error;
+	}
+
+	/**
+	 * Checks whether the message was handed off without an error
+	 *
+	 * @return true if no error was recorded
+	 */
+	public boolean isSuccess() {
+		return this.error == null;
+	}
+
+	/**
+	 * Checks whether the message went out, which is also the case when only storing it in the sent box failed.
+	 * Messages that were sent should not be sent again, even if isSuccess() is false.
+	 *
+	 * @return true if the message was handed off to the network
+	 */
+	public boolean isSent() {
+		return this.sent;
+	}
+
+	/**
+	 * Builds the result for a message that failed with the given error, telling a send failure from a message that
+	 * went out but could not be recorded
+	 */
+	static SendResult failed(Message message, Uri uri, Exception error) {
+		if (error instanceof NotRecordedException)
+			return new SendResult(message, ((NotRecordedException) error).getUri(), error, true);
+
+		return new SendResult(message, uri, error, false);
+	}
+}
@@ -29,18 +29,25 @@ public class SentReceiver extends BroadcastReceiver {
 		Uri outboxUri = (Uri) intent.getParcelableExtra(Transaction.SMS_OUTBOX_URI);
 		if (outboxUri == null)
 			return;
+		int folder;
 		switch (getResultCode()) {
 		case Activity.RESULT_OK:
-			Sms.moveMessageToFolder(context, outboxUri, Sms.MESSAGE_TYPE_SENT, intent.getIntExtra("errorCode", 0));
-			break;
-		case SmsManager.RESULT_ERROR_GENERIC_FAILURE:
-			Sms.moveMessageToFolder(context, outboxUri, Sms.MESSAGE_TYPE_FAILED, intent.getIntExtra("errorCode", 0));
+			folder = Sms.MESSAGE_TYPE_SENT;
 			break;
 		case SmsManager.RESULT_ERROR_NO_SERVICE:
 		case SmsManager.RESULT_ERROR_NULL_PDU:
 		case SmsManager.RESULT_ERROR_RADIO_OFF:
-			Sms.moveMessageToFolder(context, outboxUri, Sms.MESSAGE_TYPE_QUEUED, intent.getIntExtra("errorCode", 0));
+			folder = Sms.MESSAGE_TYPE_QUEUED;
+			break;
+		default:
+			// includes RESULT_ERROR_GENERIC_FAILURE, any other error still has to count towards the parts
+			folder = Sms.MESSAGE_TYPE_FAILED;
 			break;
 		}
+
+		// wait for every part of a multipart message and then move it once
+		SmsPartTracker.Status status = SmsPartTracker.onPartSent(context, outboxUri, intent.getIntExtra(Transaction.SMS_PART_INDEX, -1), intent.getIntExtra(Transaction.SMS_PART_COUNT, 1), folder, intent.getIntExtra("errorCode", 0));
+		if (status != null)
+			Sms.moveMessageToFolder(context, outboxUri, status.folder, status.errorCode);
 	}
 }
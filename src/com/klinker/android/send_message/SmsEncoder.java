@@ -0,0 +1,382 @@
+/*
+ * Copyright 2013 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.klinker.android.send_message;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.android.internal.telephony.EncodeException;
+import com.android.internal.telephony.GsmAlphabet;
+import com.android.internal.telephony.SmsConstants;
+
+/**
+ * Encodes sms bodies into their segments ahead of time, instead of leaving the encoding to SmsManager.divideMessage at
+ * send time. Each body gets the cheapest encoding GsmAlphabet.countGsmSeptets finds among the enabled language tables,
+ * or ucs-2 if it cannot be sent as gsm, and is split into segments holding the user data header and user data of one
+ * sms each. Large batches are spread over a worker pool.
+ *
+ * The concatenation header numbers segments in a single octet, so a body that needs more than 255 segments is rejected
+ * rather than sent with a sequence number that wraps around.
+ *
+ * @author Jake Klinker
+ */
+public class SmsEncoder {
+
+	private static final int IEI_CONCATENATED_8BIT = 0x00;
+	private static final int IEI_NATIONAL_SINGLE_SHIFT = 0x24;
+	private static final int IEI_NATIONAL_LOCKING_SHIFT = 0x25;
+
+	// the segment count and sequence number are single octets in the 8 bit concatenation header
+	public static final int MAX_SEGMENTS = 255;
+
+	// bodies encoded by each task when a batch is split across the pool
+	private static final int BATCH_SIZE = 64;
+
+	private static final AtomicInteger sReference = new AtomicInteger(new Random().nextInt(256));
+
+	/**
+	 * A body encoded into the segments it will be sent as
+	 */
+	public static class Result {
+		private final String body;
+		private final int encoding;
+		private final int languageTable;
+		private final int languageShiftTable;
+		private final boolean userDataHeader;
+		private final String[] parts;
+		private final byte[][] segments;
+
+		private Result(String body, int encoding, int languageTable, int languageShiftTable, boolean userDataHeader, String[] parts, byte[][] segments) {
+			this.body = body;
+			this.encoding = encoding;
+			this.languageTable = languageTable;
+			this.languageShiftTable = languageShiftTable;
+			this.userDataHeader = userDataHeader;
+			this.parts = parts;
+			this.segments = segments;
+		}
+
+		/**
+		 * Gets the body that was encoded
+		 *
+		 * @return the original text
+		 */
+		public String getBody() {
+			return body;
+		}
+
+		/**
+		 * Gets the encoding of every segment
+		 *
+		 * @return SmsConstants.ENCODING_7BIT or SmsConstants.ENCODING_16BIT
+		 */
+		public int getEncoding() {
+			return encoding;
+		}
+
+		/**
+		 * Gets the national language locking shift table the segments use
+		 *
+		 * @return the table, or 0 for the default gsm alphabet
+		 */
+		public int getLanguageTable() {
+			return languageTable;
+		}
+
+		/**
+		 * Gets the national language single shift table the segments use
+		 *
+		 * @return the table, or 0 for the default gsm extension table
+		 */
+		public int getLanguageShiftTable() {
+			return languageShiftTable;
+		}
+
+		/**
+		 * Checks whether the segments carry a user data header, ie. for concatenation or national language tables
+		 *
+		 * @return true if the tp-udhi bit has to be set when sending
+		 */
+		public boolean hasUserDataHeader() {
+			return userDataHeader;
+		}
+
+		/**
+		 * Gets the number of sms the body takes
+		 *
+		 * @return the segment count
+		 */
+		public int getSegmentCount() {
+			return segments.length;
+		}
+
+		/**
+		 * Gets the text that went into each segment, in the same form SmsManager.divideMessage returns it
+		 *
+		 * @return the text of every segment
+		 */
+		public String[] getParts() {
+			return parts;
+		}
+
+		/**
+		 * Gets the encoded segments. Each one starts with the user data length (in septets for gsm, in bytes for
+		 * ucs-2) followed by the user data header, if any, and the encoded text, ready to be put in a submit pdu.
+		 *
+		 * @return the user data of every segment
+		 */
+		public byte[][] getSegments() {
+			return segments;
+		}
+	}
+
+	/**
+	 * Encodes a single body
+	 *
+	 * @param body
+	 *            is the text to encode
+	 * @return the encoded segments
+	 * @throws IllegalArgumentException
+	 *             if the body needs more than MAX_SEGMENTS segments
+	 */
+	public static Result encode(String body) {
+		GsmAlphabet.TextEncodingDetails ted = GsmAlphabet.countGsmSeptets(body, false);
+
+		if (ted != null) {
+			try {
+				return encodeGsm(body, ted);
+			} catch (EncodeException e) {
+				// only stray escape characters get past countGsmSeptets, ucs-2 can still send those
+			}
+		}
+
+		return encodeUcs2(body);
+	}
+
+	/**
+	 * Encodes a batch of bodies, spreading large batches over one thread per core
+	 *
+	 * @param bodies
+	 *            is the list of texts to encode
+	 * @return the encoded segments of every body, in the same order as the list
+	 * @throws IllegalArgumentException
+	 *             if any body needs more than MAX_SEGMENTS segments
+	 */
+	public static List<Result> encodeAll(final List<String> bodies) {
+		final Result[] results = new Result[bodies.size()];
+
+		if (bodies.size() <= BATCH_SIZE) {
+			for (int i = 0; i < results.length; i++)
+				results[i] = encode(bodies.get(i));
+
+			return Arrays.asList(results);
+		}
+
+		List<Future<?>> futures = new ArrayList<Future<?>>(bodies.size() / BATCH_SIZE + 1);
+		for (int start = 0; start < results.length; start += BATCH_SIZE) {
+			final int from = start;
+			final int to = Math.min(start + BATCH_SIZE, results.length);
+
+			futures.add(SendExecutor.getEncodeExecutor().submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (int i = from; i < to; i++)
+						results[i] = encode(bodies.get(i));
+					return null;
+				}
+			}));
+		}
+
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while encoding messages", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IllegalArgumentException)
+					throw (IllegalArgumentException) e.getCause();
+
+				throw new IllegalStateException("Unable to encode message", e.getCause());
+			}
+		}
+
+		return Arrays.asList(results);
+	}
+
+	private static Result encodeGsm(String body, GsmAlphabet.TextEncodingDetails ted) throws EncodeException {
+		int languageTable = ted.languageTable;
+		int shiftTable = ted.languageShiftTable;
+		boolean concatenated = ted.msgCount > 1;
+
+		List<String> parts = new ArrayList<String>(ted.msgCount);
+		if (concatenated) {
+			int limit = SmsConstants.MAX_USER_DATA_SEPTETS - getHeaderSeptets(getHeaderLength(true, languageTable, shiftTable));
+			int start = 0;
+
+			while (start < body.length()) {
+				int end = GsmAlphabet.findGsmSeptetLimitIndex(body, start, limit, languageTable, shiftTable);
+				addPart(parts, body.substring(start, end));
+				start = end;
+			}
+		} else {
+			parts.add(body);
+		}
+
+		int reference = concatenated ? nextReference() : 0;
+		byte[][] segments = new byte[parts.size()][];
+
+		for (int i = 0; i < segments.length; i++) {
+			byte[] header = getHeader(concatenated, reference, segments.length, i + 1, languageTable, shiftTable);
+			segments[i] = GsmAlphabet.stringToGsm7BitPackedWithHeader(parts.get(i), header, languageTable, shiftTable);
+		}
+
+		return new Result(body, SmsConstants.ENCODING_7BIT, languageTable, shiftTable, concatenated || languageTable != 0 || shiftTable != 0, parts.toArray(new String[parts.size()]), segments);
+	}
+
+	private static Result encodeUcs2(String body) {
+		boolean concatenated = body.length() * 2 > SmsConstants.MAX_USER_DATA_BYTES;
+
+		List<String> parts = new ArrayList<String>();
+		if (concatenated) {
+			int limit = (SmsConstants.MAX_USER_DATA_BYTES - 1 - getHeaderLength(true, 0, 0)) / 2;
+			int start = 0;
+
+			while (start < body.length()) {
+				int end = Math.min(start + limit, body.length());
+
+				// never split a surrogate pair between two segments
+				if (end < body.length() && Character.isHighSurrogate(body.charAt(end - 1)))
+					end--;
+
+				addPart(parts, body.substring(start, end));
+				start = end;
+			}
+		} else {
+			parts.add(body);
+		}
+
+		int reference = concatenated ? nextReference() : 0;
+		byte[][] segments = new byte[parts.size()][];
+
+		for (int i = 0; i < segments.length; i++) {
+			byte[] header = getHeader(concatenated, reference, segments.length, i + 1, 0, 0);
+			byte[] text;
+
+			try {
+				text = parts.get(i).getBytes("UTF-16BE");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException("UTF-16BE is not supported", e);
+			}
+
+			int headerBytes = header != null ? header.length + 1 : 0;
+			byte[] segment = new byte[1 + headerBytes + text.length];
+			segment[0] = (byte) (headerBytes + text.length);
+
+			if (header != null) {
+				segment[1] = (byte) header.length;
+				System.arraycopy(header, 0, segment, 2, header.length);
+			}
+
+			System.arraycopy(text, 0, segment, 1 + headerBytes, text.length);
+			segments[i] = segment;
+		}
+
+		return new Result(body, SmsConstants.ENCODING_16BIT, 0, 0, concatenated, parts.toArray(new String[parts.size()]), segments);
+	}
+
+	/**
+	 * Adds the next segment of a concatenated body, failing as soon as the body has more segments than the header
+	 * can number
+	 */
+	private static void addPart(List<String> parts, String part) {
+		if (parts.size() == MAX_SEGMENTS)
+			throw new IllegalArgumentException("Message needs more than " + MAX_SEGMENTS + " segments");
+
+		parts.add(part);
+	}
+
+	/**
+	 * Gets the length of the user data header without its own length byte
+	 */
+	private static int getHeaderLength(boolean concatenated, int languageTable, int shiftTable) {
+		int length = 0;
+
+		if (concatenated)
+			length += 5;
+		if (shiftTable != 0)
+			length += 3;
+		if (languageTable != 0)
+			length += 3;
+
+		return length;
+	}
+
+	/**
+	 * Gets the number of septets a header takes including its length byte, padded to a septet boundary
+	 */
+	private static int getHeaderSeptets(int headerLength) {
+		return ((headerLength + 1) * 8 + 6) / 7;
+	}
+
+	/**
+	 * Builds the information elements of the user data header for one segment
+	 *
+	 * @return the header without its length byte, or null if the segment does not need one
+	 */
+	private static byte[] getHeader(boolean concatenated, int reference, int count, int sequence, int languageTable, int shiftTable) {
+		int length = getHeaderLength(concatenated, languageTable, shiftTable);
+		if (length == 0)
+			return null;
+
+		byte[] header = new byte[length];
+		int i = 0;
+
+		if (concatenated) {
+			header[i++] = IEI_CONCATENATED_8BIT;
+			header[i++] = 3;
+			header[i++] = (byte) reference;
+			header[i++] = (byte) count;
+			header[i++] = (byte) sequence;
+		}
+
+		if (shiftTable != 0) {
+			header[i++] = IEI_NATIONAL_SINGLE_SHIFT;
+			header[i++] = 1;
+			header[i++] = (byte) shiftTable;
+		}
+
+		if (languageTable != 0) {
+			header[i++] = IEI_NATIONAL_LOCKING_SHIFT;
+			header[i++] = 1;
+			header[i++] = (byte) languageTable;
+		}
+
+		return header;
+	}
+
+	private static int nextReference() {
+		return sReference.incrementAndGet() & 0xff;
+	}
+}
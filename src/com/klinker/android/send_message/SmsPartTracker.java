@@ -0,0 +1,240 @@
+/*
+ * Copyright 2013 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.klinker.android.send_message;
+
+import java.util.Map;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.provider.Telephony.Sms;
+
+/**
+ * Collects the sent and delivered results of each part of a multipart sms so that the outbox row is only written
+ * once, when the last part has reported back. The results are kept in shared preferences keyed by the outbox uri,
+ * since the parts of one message often report back after the process has been killed in between. Delivery results
+ * are dropped once a part fails to send, and results still incomplete after a week, eg. because the network never
+ * sent some delivery reports, are dropped the next time a message starts reporting.
+ *
+ * @author Jake Klinker
+ */
+class SmsPartTracker {
+
+	private static final String PREFERENCES = "sms_part_tracker";
+	private static final String SENT = "sent:";
+	private static final String DELIVERED = "delivered:";
+
+	private static final long MAX_AGE = 7 * 24 * 60 * 60 * 1000L;
+
+	private static final Object sLock = new Object();
+
+	/**
+	 * Aggregated state of one message
+	 */
+	static class Status {
+		public int folder = Sms.MESSAGE_TYPE_SENT;
+		public int errorCode = 0;
+		public boolean success = true;
+		private boolean[] reported;
+		private int remaining;
+		private long started;
+		private boolean isNew = true;
+
+		private Status(int partCount) {
+			reported = new boolean[partCount];
+			remaining = partCount;
+			started = System.currentTimeMillis();
+		}
+
+		private String save() {
+			StringBuilder value = new StringBuilder();
+			value.append(folder).append(',').append(errorCode).append(',').append(success ? 1 : 0).append(',');
+			for (int i = 0; i < reported.length; i++)
+				value.append(reported[i] ? '1' : '0');
+			value.append(',').append(started);
+
+			return value.toString();
+		}
+
+		private static long getStarted(String value) {
+			int comma = value.lastIndexOf(',');
+
+			try {
+				return Long.parseLong(value.substring(comma + 1));
+			} catch (NumberFormatException e) {
+				return 0;
+			}
+		}
+
+		private static Status restore(String value, int partCount) {
+			if (value != null) {
+				String[] fields = value.split(",");
+
+				if (fields.length == 5 && fields[3].length() == partCount) {
+					try {
+						Status status = new Status(partCount);
+						status.folder = Integer.parseInt(fields[0]);
+						status.errorCode = Integer.parseInt(fields[1]);
+						status.success = "1".equals(fields[2]);
+						status.started = Long.parseLong(fields[4]);
+						status.isNew = false;
+
+						for (int i = 0; i < partCount; i++) {
+							if (fields[3].charAt(i) == '1') {
+								status.reported[i] = true;
+								status.remaining--;
+							}
+						}
+
+						return status;
+					} catch (NumberFormatException e) {
+						// start over below
+					}
+				}
+			}
+
+			return new Status(partCount);
+		}
+	}
+
+	/**
+	 * Records the sent result of a part
+	 *
+	 * @param context
+	 *            is the context of the receiver, used to keep the results of the parts
+	 * @param uri
+	 *            is the outbox uri of the message
+	 * @param part
+	 *            is the index of the part
+	 * @param partCount
+	 *            is the number of parts in the message
+	 * @param folder
+	 *            is the folder this part alone would move the message to
+	 * @param errorCode
+	 *            is the error reported for the part
+	 * @return the combined status once every part has reported, otherwise null
+	 */
+	static Status onPartSent(Context context, Uri uri, int part, int partCount, int folder, int errorCode) {
+		synchronized (sLock) {
+			SharedPreferences preferences = getPreferences(context);
+			String key = SENT + uri;
+
+			Status status = report(preferences, key, part, partCount);
+			if (status == null)
+				return null;
+
+			// a failed part fails the message, a queued part queues it, and it is only sent if every part was
+			if (getRank(folder) > getRank(status.folder)) {
+				status.folder = folder;
+				status.errorCode = errorCode;
+			}
+
+			// a part that was not sent never reports its delivery, so the message can't finish delivering
+			if (folder == Sms.MESSAGE_TYPE_FAILED)
+				preferences.edit().remove(DELIVERED + uri).apply();
+
+			return finish(preferences, key, status);
+		}
+	}
+
+	/**
+	 * Records the delivery result of a part
+	 *
+	 * @param context
+	 *            is the context of the receiver, used to keep the results of the parts
+	 * @param uri
+	 *            is the outbox uri of the message
+	 * @param part
+	 *            is the index of the part
+	 * @param partCount
+	 *            is the number of parts in the message
+	 * @param delivered
+	 *            is whether the part was delivered
+	 * @return the combined status once every part has reported, otherwise null
+	 */
+	static Status onPartDelivered(Context context, Uri uri, int part, int partCount, boolean delivered) {
+		synchronized (sLock) {
+			SharedPreferences preferences = getPreferences(context);
+			String key = DELIVERED + uri;
+
+			Status status = report(preferences, key, part, partCount);
+			if (status == null)
+				return null;
+
+			status.success &= delivered;
+			return finish(preferences, key, status);
+		}
+	}
+
+	private static SharedPreferences getPreferences(Context context) {
+		return context.getApplicationContext().getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+	}
+
+	private static Status report(SharedPreferences preferences, String key, int part, int partCount) {
+		// single part messages, or intents from before parts were tracked, finish right away
+		if (partCount <= 1 || part < 0 || part >= partCount)
+			return new Status(0);
+
+		Status status = Status.restore(preferences.getString(key, null), partCount);
+
+		// the radio can report the same part more than once
+		if (status.reported[part])
+			return null;
+
+		status.reported[part] = true;
+		status.remaining--;
+		return status;
+	}
+
+	private static Status finish(SharedPreferences preferences, String key, Status status) {
+		// applied in the background, a receiver is not finished before pending writes are done
+		if (status.remaining > 0) {
+			SharedPreferences.Editor editor = preferences.edit();
+			if (status.isNew)
+				removeExpired(preferences, editor);
+
+			editor.putString(key, status.save()).apply();
+			return null;
+		}
+
+		if (status.reported.length > 0)
+			preferences.edit().remove(key).apply();
+
+		return status;
+	}
+
+	private static void removeExpired(SharedPreferences preferences, SharedPreferences.Editor editor) {
+		long expired = System.currentTimeMillis() - MAX_AGE;
+
+		for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+			Object value = entry.getValue();
+			if (!(value instanceof String) || Status.getStarted((String) value) < expired)
+				editor.remove(entry.getKey());
+		}
+	}
+
+	private static int getRank(int folder) {
+		switch (folder) {
+		case Sms.MESSAGE_TYPE_FAILED:
+			return 2;
+		case Sms.MESSAGE_TYPE_QUEUED:
+			return 1;
+		default:
+			return 0;
+		}
+	}
+}
@@ -16,18 +16,137 @@
 
 package com.klinker.android.send_message;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public class StripAccents {
 
 	public static String characters = "\u03B1\u03B2\u03B3\u03B4\u03B5\u03B6\u03B7\u03B8\u03B9\u03BA\u03BB\u03BC\u03BD" + "\u03BE\u03BF\u03C0\u03C1\u03C3\u03C2\u03C4\u03C5\u03C6\u03C7\u03C8\u03C9\u03AC\u03AD" + "\u03AE\u03AF\u03CC\u03CD\u03CE\u03CA\u03CB\u0390\u03B0\u0391\u0392\u0395\u0396\u0397\u0399" + "\u039A\u039C\u039D\u039F\u03A1\u03A4\u03A5\u03A7\u0386\u0388\u0389\u038A\u038C\u038F\u03AA" + "\u03AB\u0170\u0171\u0150\u0151\u0105\u0107\u0119\u0142\u0144\u015B\u017A\u017C\u0104\u0106" + "\u0118\u0141\u0143\u015A\u0179\u017B\u00C0\u00C2\u00C3\u00C8\u00CA\u00CC\u00CE\u00D2\u00D5" + "\u00D9\u00DB\u00E2\u00E3\u00EA\u00EE\u00F5\u00FA\u00FB\u00E7\u011B\u0161\u010D\u0159\u017E\u010F" + "\u0165\u0148\u00E1\u00ED\u00E9\u00F3\u00FD\u016F\u011A\u0160\u010C\u0158\u017D\u010E\u0164\u0147" + "\u00C1\u00C9\u00CD\u00D3\u00DD\u00DA\u016E\u0155\u013A\u013E\u00F4\u0154\u0139\u013D\u00D4\u00CF\u00EF\u00EB\u00CB";
 
 	public static String gsm = "AB\u0393\u0394EZH\u0398IK\u039BMN\u039EO\u03A0P\u03A3\u03A3TY\u03A6X\u03A8\u03A9AEHIOY" + "\u03A9IYIYABEZHIKMNOPTYXAEHIO\u03A9IY\u00DC\u00FC\u00D6\u00F6acelnszzACELNSZZAAAEEIIOOUU" + "aaeiouucescrzdtnaieoyuESCRZDTNAEIOYUUrlloRLLOIIee";
 
+	// lookup table built from characters and gsm plus anything registered, replaced as a whole when it changes
+	private static volatile Table sTable = new Table(null);
+
+	/**
+	 * Replaces every character that has a transliteration with its gsm compatible replacement, in a single pass
+	 * 
+	 * @param s
+	 *            is the text to strip
+	 * @return the stripped text, or s itself if nothing had to be replaced
+	 */
 	public static String stripAccents(String s) {
+		Table table = sTable;
+		int length = s.length();
+
+		// nothing is allocated until the first character that needs replacing
+		int i = 0;
+		while (i < length && !table.isMapped(s.charAt(i)))
+			i++;
+
+		if (i == length)
+			return s;
+
+		StringBuilder builder = new StringBuilder(length);
+		builder.append(s, 0, i);
+
+		for (; i < length; i++) {
+			char c = s.charAt(i);
+
+			if (!table.isMapped(c)) {
+				builder.append(c);
+			} else if (table.multi != null && table.multi[c] != null) {
+				builder.append(table.multi[c]);
+			} else {
+				builder.append(table.single[c]);
+			}
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Registers a custom transliteration, replacing any earlier one for the same character
+	 * 
+	 * @param from
+	 *            is the character to replace
+	 * @param to
+	 *            is the text to replace it with, an empty string removes the character
+	 */
+	public static void register(char from, String to) {
+		Map<Character, String> map = new HashMap<Character, String>();
+		map.put(from, to);
+		register(map);
+	}
+
+	/**
+	 * Registers a set of custom transliterations, replacing any earlier ones for the same characters
+	 * 
+	 * @param map
+	 *            is the map of characters to the text that replaces them
+	 */
+	public static synchronized void register(Map<Character, String> map) {
+		HashMap<Character, String> custom = new HashMap<Character, String>(sTable.custom);
+		custom.putAll(map);
+		sTable = new Table(custom);
+	}
+
+	/**
+	 * Removes every custom transliteration, going back to the built in ones
+	 */
+	public static synchronized void reset() {
+		sTable = new Table(null);
+	}
+
+	/**
+	 * Gets the lookup table currently in use, for callers that strip and do other work in the same pass
+	 */
+	static Table getTable() {
+		return sTable;
+	}
+
+	static class Table {
+		public final char[] single;
+		public final String[] multi;
+		public final HashMap<Character, String> custom;
+
+		public Table(HashMap<Character, String> custom) {
+			this.custom = custom != null ? custom : new HashMap<Character, String>();
 
-		for (int i = 0; i < characters.length(); i++) {
-			s = s.replaceAll(characters.substring(i, i + 1), gsm.substring(i, i + 1));
+			int size = 0;
+			for (int i = 0; i < characters.length(); i++)
+				size = Math.max(size, characters.charAt(i) + 1);
+			for (Character c : this.custom.keySet())
+				size = Math.max(size, c + 1);
+
+			single = new char[size];
+			String[] multi = null;
+
+			for (int i = 0; i < characters.length(); i++)
+				single[characters.charAt(i)] = gsm.charAt(i);
+
+			for (Map.Entry<Character, String> entry : this.custom.entrySet()) {
+				char c = entry.getKey();
+				String to = entry.getValue();
+
+				if (to.length() == 1) {
+					single[c] = to.charAt(0);
+					if (multi != null)
+						multi[c] = null;
+				} else {
+					// anything but a single character, including removal, goes through the string table
+					if (multi == null)
+						multi = new String[size];
+					multi[c] = to;
+					single[c] = 1;
+				}
+			}
+
+			this.multi = multi;
 		}
 
-		return s;
+		public boolean isMapped(char c) {
+			return c < single.length && single[c] != 0;
+		}
 	}
 }
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2013 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.klinker.android.send_message;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.Telephony.MmsSms;
+import android.provider.Telephony.Threads;
+
+import com.google.android.mms.util_alt.SqliteWrapper;
+
+/**
+ * Bounded least recently used cache of thread ids, keyed by the normalized set of recipients. The mms-sms provider
+ * reports every message insert and update on the same uri as a deleted conversation, so a change does not clear the
+ * cache. It only marks the cached ids as unchecked, and an unchecked id is looked up in the threads table the next
+ * time it is used and dropped if its conversation is gone.
+ *
+ * @author Jake Klinker
+ */
+public class ThreadIdCache {
+
+	public static final int DEFAULT_MAX_SIZE = 256;
+
+	private static ThreadIdCache sInstance;
+
+	private static final Uri SIMPLE_THREADS_URI = Threads.CONTENT_URI.buildUpon().appendQueryParameter("simple", "true").build();
+
+	private final LinkedHashMap<List<String>, Entry> mThreadIds;
+	private final AtomicLong mHits = new AtomicLong();
+	private final AtomicLong mMisses = new AtomicLong();
+	private int mMaxSize;
+	private int mGeneration;
+	private boolean mObserving;
+
+	private final ContentObserver mObserver = new ContentObserver(null) {
+		@Override
+		public void onChange(boolean selfChange) {
+			synchronized (mThreadIds) {
+				mGeneration++;
+			}
+		}
+	};
+
+	private static final class Entry {
+		final long threadId;
+		int generation;
+
+		Entry(long threadId, int generation) {
+			this.threadId = threadId;
+			this.generation = generation;
+		}
+	}
+
+	private ThreadIdCache(int maxSize) {
+		mMaxSize = maxSize;
+		mThreadIds = new LinkedHashMap<List<String>, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<List<String>, Entry> eldest) {
+				return size() > mMaxSize;
+			}
+		};
+	}
+
+	/**
+	 * Gets the cache shared by every Utils.getOrCreateThreadId call
+	 *
+	 * @return the shared cache
+	 */
+	public static synchronized ThreadIdCache getInstance() {
+		if (sInstance == null)
+			sInstance = new ThreadIdCache(DEFAULT_MAX_SIZE);
+
+		return sInstance;
+	}
+
+	/**
+	 * Builds the key for a set of recipients so the same people in any order map to the same entry
+	 *
+	 * @param recipients
+	 *            is the array of normalized recipients
+	 * @return the cache key
+	 */
+	static List<String> getKey(String[] recipients) {
+		if (recipients.length == 1)
+			return Collections.singletonList(recipients[0]);
+
+		String[] sorted = recipients.clone();
+		Arrays.sort(sorted);
+		return Arrays.asList(sorted);
+	}
+
+	/**
+	 * Gets a cached thread id, checking that its conversation still exists if the provider changed since it was last
+	 * checked
+	 *
+	 * @param context
+	 *            is the context of the activity or service, used to start watching the threads table
+	 * @param key
+	 *            is the key built from the recipients
+	 * @return the thread id, or null if it is not cached or its conversation was deleted
+	 */
+	Long get(Context context, List<String> key) {
+		ensureObserving(context);
+
+		Entry entry;
+		int generation;
+		synchronized (mThreadIds) {
+			entry = mThreadIds.get(key);
+			generation = mGeneration;
+
+			if (entry != null && entry.generation == generation) {
+				mHits.incrementAndGet();
+				return entry.threadId;
+			}
+		}
+
+		if (entry == null) {
+			mMisses.incrementAndGet();
+			return null;
+		}
+
+		boolean exists = threadExists(context, entry.threadId);
+
+		synchronized (mThreadIds) {
+			if (exists) {
+				// a change during the query leaves the entry unchecked for the next use
+				entry.generation = generation;
+			} else if (mThreadIds.get(key) == entry) {
+				mThreadIds.remove(key);
+			}
+		}
+
+		if (exists)
+			mHits.incrementAndGet();
+		else
+			mMisses.incrementAndGet();
+
+		return exists ? entry.threadId : null;
+	}
+
+	private static boolean threadExists(Context context, long threadId) {
+		Cursor cursor = SqliteWrapper.query(context, context.getContentResolver(), SIMPLE_THREADS_URI, new String[] { Threads._ID }, Threads._ID + "=" + threadId, null, null);
+
+		if (cursor == null)
+			return false;
+
+		try {
+			return cursor.moveToFirst();
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Gets the number of changes reported by the provider, read before looking a thread id up so the result is checked
+	 * again on its next use if the threads changed in the meantime
+	 *
+	 * @return the current generation
+	 */
+	int getGeneration() {
+		synchronized (mThreadIds) {
+			return mGeneration;
+		}
+	}
+
+	/**
+	 * Caches a thread id looked up from the provider
+	 *
+	 * @param key
+	 *            is the key built from the recipients
+	 * @param threadId
+	 *            is the thread id
+	 * @param generation
+	 *            is the generation read before the lookup started, the id is checked on its next use if the provider
+	 *            changed since
+	 */
+	void put(List<String> key, long threadId, int generation) {
+		synchronized (mThreadIds) {
+			mThreadIds.put(key, new Entry(threadId, generation));
+		}
+	}
+
+	private void ensureObserving(Context context) {
+		synchronized (mObserver) {
+			if (mObserving)
+				return;
+
+			context.getApplicationContext().getContentResolver().registerContentObserver(MmsSms.CONTENT_URI, true, mObserver);
+			mObserving = true;
+		}
+	}
+
+	/**
+	 * Removes every cached thread id
+	 */
+	public void invalidate() {
+		synchronized (mThreadIds) {
+			mThreadIds.clear();
+			mGeneration++;
+		}
+	}
+
+	/**
+	 * Sets the maximum number of recipient sets to remember, evicting the least recently used ones if needed
+	 *
+	 * @param maxSize
+	 *            is the new maximum size
+	 */
+	public void setMaxSize(int maxSize) {
+		synchronized (mThreadIds) {
+			mMaxSize = maxSize;
+
+			while (mThreadIds.size() > mMaxSize)
+				mThreadIds.remove(mThreadIds.keySet().iterator().next());
+		}
+	}
+
+	/**
+	 * Gets the number of cached recipient sets
+	 *
+	 * @return the current size of the cache
+	 */
+	public int size() {
+		synchronized (mThreadIds) {
+			return mThreadIds.size();
+		}
+	}
+
+	/**
+	 * Gets the number of lookups answered from the cache
+	 *
+	 * @return the hit count
+	 */
+	public long getHitCount() {
+		return mHits.get();
+	}
+
+	/**
+	 * Gets the number of lookups that had to query the provider
+	 *
+	 * @return the miss count
+	 */
+	public long getMissCount() {
+		return mMisses.get();
+	}
+}
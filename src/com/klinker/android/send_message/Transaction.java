@@ -20,11 +20,27 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.SocketException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.app.PendingIntent;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
@@ -32,7 +48,9 @@ import android.net.Uri;
 import android.provider.Telephony;
 import android.provider.Telephony.Sms;
 import android.telephony.SmsManager;
+import android.util.Log;
 
+import com.android.mms.MmsConfig;
 import com.android.mms.dom.smil.parser.SmilXmlSerializer;
 import com.android.mms.transaction.HttpUtils;
 import com.android.mms.transaction.TransactionSettings;
@@ -41,24 +59,36 @@ import com.google.android.mms.MMSPart;
 import com.google.android.mms.MmsException;
 import com.google.android.mms.pdu_alt.CharacterSets;
 import com.google.android.mms.pdu_alt.EncodedStringValue;
+import com.google.android.mms.pdu_alt.GenericPdu;
 import com.google.android.mms.pdu_alt.PduBody;
 import com.google.android.mms.pdu_alt.PduComposer;
 import com.google.android.mms.pdu_alt.PduPart;
 import com.google.android.mms.pdu_alt.PduPersister;
 import com.google.android.mms.pdu_alt.SendReq;
 import com.google.android.mms.smil.SmilHelper;
+import com.google.android.mms.util_alt.SqliteWrapper;
 
 public class Transaction {
 
+	private static final String TAG = "Transaction";
+
 	private Settings mSettings;
 	private Context mContext;
+	private SendExecutor mSendExecutor;
 
 	public String SMS_SENT = ".SMS_SENT";
 	public String SMS_DELIVERED = ".SMS_DELIVERED";
 	public static final String SMS_OUTBOX_URI = "SMS_OUTBOX_URI";
+	public static final String SMS_PART_INDEX = "SMS_PART_INDEX";
+	public static final String SMS_PART_COUNT = "SMS_PART_COUNT";
 
 	public static final long NO_THREAD_ID = 0;
 
+	// room left for the pdu headers, part headers and smil when sizing the images
+	private static final int PDU_OVERHEAD = 4 * 1024;
+
+	private static final AtomicInteger sRequestCode = new AtomicInteger((int) System.currentTimeMillis());
+
 	public Transaction(Context context) {
 		this(context, new Settings());
 	}
@@ -73,32 +103,164 @@ public class Transaction {
 
 	public Uri sendNewMessage(Message message, long threadId) throws SocketException, IOException, MmsException {
 		if (checkMMS(message)) {
-			return sendMmsMessage(message.getText(), message.getAddresses(), message.getImages(), message.getMedia(), message.getMediaMimeType(), message.getSubject());
+			return sendMmsMessage(message.getText(), message.getAddresses(), message.getImages(), message.getMedia(), message.getMediaMimeType(), message.getAttachments(), message.getSubject());
 		} else {
-			return sendSmsMessage(message.getText(), message.getAddresses()[0]);
+			return sendSmsMessage(message.getEncodedText(mSettings).getText(), message.getAddresses()[0]);
 		}
 	}
 
-	private Uri sendSmsMessage(String text, String address) {
-		// add signature to original text to be saved in database (does not strip unicode for saving though)
-		if (!mSettings.getSignature().equals(""))
-			text += "\n" + mSettings.getSignature();
+	/**
+	 * Sends a batch of messages. Thread ids for the sms messages are resolved once per distinct recipient and all of
+	 * their outbox rows are inserted in a single provider batch before the parts are handed to the SmsManager. Mms
+	 * messages in the list are sent one at a time as in sendNewMessage.
+	 * 
+	 * @param messages
+	 *            is the list of messages to send
+	 * @return a result for each message, in the same order as the list, holding either its outbox uri or the error
+	 */
+	public List<SendResult> sendNewMessages(List<Message> messages) {
+		SendResult[] results = new SendResult[messages.size()];
+		ArrayList<PendingSms> pending = new ArrayList<PendingSms>();
+
+		for (int i = 0; i < messages.size(); i++) {
+			Message message = messages.get(i);
+
+			if (checkMMS(message)) {
+				try {
+					results[i] = new SendResult(message, sendNewMessage(message, NO_THREAD_ID), null);
+				} catch (Exception e) {
+					results[i] = SendResult.failed(message, null, e);
+				}
+			} else {
+				PendingSms sms = new PendingSms();
+				sms.index = i;
+				sms.message = message;
+				sms.address = message.getAddresses()[0];
+				sms.text = message.getEncodedText(mSettings).getText();
+				pending.add(sms);
+			}
+		}
+
+		// resolve every distinct recipient once before touching the outbox
+		HashMap<String, Long> threadIds = new HashMap<String, Long>();
+		ArrayList<PendingSms> resolved = new ArrayList<PendingSms>(pending.size());
+
+		for (PendingSms sms : pending) {
+			Long threadId = threadIds.get(sms.address);
+
+			if (threadId == null) {
+				try {
+					threadId = Utils.getOrCreateThreadId(mContext, sms.address);
+					threadIds.put(sms.address, threadId);
+				} catch (IllegalArgumentException e) {
+					results[sms.index] = new SendResult(sms.message, null, e);
+					continue;
+				}
+			}
 
+			sms.threadId = threadId;
+			resolved.add(sms);
+		}
+
+		addToOutbox(resolved, Calendar.getInstance().getTimeInMillis());
+
+		for (PendingSms sms : resolved) {
+			if (sms.outboxUri == null) {
+				results[sms.index] = new SendResult(sms.message, null, new IllegalStateException("Unable to add message to the outbox."));
+				continue;
+			}
+
+			try {
+				dispatchSmsMessage(sms.text, sms.address, sms.outboxUri);
+				results[sms.index] = new SendResult(sms.message, sms.outboxUri, null);
+			} catch (RuntimeException e) {
+				results[sms.index] = new SendResult(sms.message, sms.outboxUri, e);
+			}
+		}
+
+		return Arrays.asList(results);
+	}
+
+	private Uri sendSmsMessage(String text, String address) {
 		Calendar cal = Calendar.getInstance();
 
 		long threadId = Utils.getOrCreateThreadId(mContext, address);
-		Uri smsOutboxUri = Sms.Outbox.addMessage(mContext.getContentResolver(), address, mSettings.getStripUnicode() ? StripAccents.stripAccents(text) : text, "", cal.getTimeInMillis(), mSettings.getDeliveryReports(), threadId);
+		Uri smsOutboxUri = Sms.Outbox.addMessage(mContext.getContentResolver(), address, text, "", cal.getTimeInMillis(), mSettings.getDeliveryReports(), threadId);
+
+		dispatchSmsMessage(text, address, smsOutboxUri);
+		return smsOutboxUri;
+	}
+
+	private void addToOutbox(ArrayList<PendingSms> messages, long date) {
+		if (messages.isEmpty())
+			return;
+
+		ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(messages.size());
+
+		for (PendingSms sms : messages) {
+			ContentValues values = new ContentValues(7);
+			values.put(Sms.ADDRESS, sms.address);
+			values.put(Sms.DATE, date);
+			values.put(Sms.READ, Integer.valueOf(1));
+			values.put(Sms.SUBJECT, "");
+			values.put(Sms.BODY, sms.text);
+			if (mSettings.getDeliveryReports())
+				values.put(Sms.STATUS, Sms.STATUS_PENDING);
+			values.put(Sms.THREAD_ID, sms.threadId);
+
+			operations.add(ContentProviderOperation.newInsert(Sms.Outbox.CONTENT_URI).withValues(values).build());
+		}
+
+		try {
+			ContentProviderResult[] inserted = mContext.getContentResolver().applyBatch(Sms.CONTENT_URI.getAuthority(), operations);
+
+			for (int i = 0; i < inserted.length && i < messages.size(); i++)
+				messages.get(i).outboxUri = inserted[i].uri;
+		} catch (Exception e) {
+			Log.e(TAG, "batch insert into the sms outbox failed, inserting one at a time", e);
+
+			// the batch may have stopped partway, so pick up the rows it did insert instead of adding them twice
+			HashSet<Long> found = new HashSet<Long>();
+			for (PendingSms sms : messages) {
+				sms.outboxUri = findOutboxRow(sms, date, found);
+
+				if (sms.outboxUri == null)
+					sms.outboxUri = Sms.Outbox.addMessage(mContext.getContentResolver(), sms.address, sms.text, "", date, mSettings.getDeliveryReports(), sms.threadId);
+			}
+		}
+	}
+
+	/**
+	 * Finds an outbox row already inserted for a message of the batch, skipping the rows already handed out in case
+	 * the same text goes to the same recipient twice
+	 */
+	private Uri findOutboxRow(PendingSms sms, long date, HashSet<Long> found) {
+		String selection = Sms.ADDRESS + "=? AND " + Sms.BODY + "=? AND " + Sms.DATE + "=? AND " + Sms.THREAD_ID + "=?";
+		String[] selectionArgs = new String[] { sms.address, sms.text, String.valueOf(date), String.valueOf(sms.threadId) };
+
+		Cursor cursor = SqliteWrapper.query(mContext, mContext.getContentResolver(), Sms.Outbox.CONTENT_URI, new String[] { Sms._ID }, selection, selectionArgs, Sms._ID);
+		if (cursor == null)
+			return null;
 
-		PendingIntent sentPI = PendingIntent.getBroadcast(mContext, 0, new Intent(SMS_SENT).putExtra(SMS_OUTBOX_URI, smsOutboxUri), 0);
-		PendingIntent deliveredPI = PendingIntent.getBroadcast(mContext, 0, new Intent(SMS_DELIVERED).putExtra(SMS_OUTBOX_URI, smsOutboxUri), 0);
+		try {
+			while (cursor.moveToNext()) {
+				long id = cursor.getLong(0);
 
+				if (found.add(id))
+					return ContentUris.withAppendedId(Sms.CONTENT_URI, id);
+			}
+		} finally {
+			cursor.close();
+		}
+
+		return null;
+	}
+
+	private void dispatchSmsMessage(String text, String address, Uri smsOutboxUri) {
 		ArrayList<PendingIntent> sPI = new ArrayList<PendingIntent>();
 		ArrayList<PendingIntent> dPI = new ArrayList<PendingIntent>();
 
-		// edit the body of the text if unicode needs to be stripped or signature needs to be added
-		if (mSettings.getStripUnicode())
-			text = StripAccents.stripAccents(text);
-
+		// the text already has its signature and is stripped, only the pre text is left to add
 		if (!mSettings.getPreText().equals(""))
 			text = mSettings.getPreText() + " " + text;
 
@@ -106,21 +268,145 @@ public class Transaction {
 
 		ArrayList<String> parts = smsManager.divideMessage(text);
 
+		// every part gets its own intents so the receivers can count them and update the outbox row once
 		for (int j = 0; j < parts.size(); j++) {
-			sPI.add(sentPI);
-			dPI.add(mSettings.getDeliveryReports() ? deliveredPI : null);
+			sPI.add(getPartIntent(SMS_SENT, smsOutboxUri, j, parts.size()));
+			dPI.add(mSettings.getDeliveryReports() ? getPartIntent(SMS_DELIVERED, smsOutboxUri, j, parts.size()) : null);
 		}
 
 		if (mSettings.getSplit()) {
-			for (String part : parts)
-				smsManager.sendTextMessage(address, null, part, sPI.get(0), dPI.get(0));
+			for (int j = 0; j < parts.size(); j++)
+				smsManager.sendTextMessage(address, null, parts.get(j), sPI.get(j), dPI.get(j));
 		} else {
 			smsManager.sendMultipartTextMessage(address, null, parts, sPI, dPI);
 		}
-		return smsOutboxUri;
 	}
 
-	private Uri sendMmsMessage(String text, String[] addresses, Bitmap[] image, byte[] media, String mimeType, String subject) throws SocketException, IOException, MmsException {
+	private PendingIntent getPartIntent(String action, Uri smsOutboxUri, int part, int partCount) {
+		Intent intent = new Intent(action).putExtra(SMS_OUTBOX_URI, smsOutboxUri).putExtra(SMS_PART_INDEX, part).putExtra(SMS_PART_COUNT, partCount);
+
+		// a distinct request code keeps the system from handing back an earlier intent with the old extras
+		return PendingIntent.getBroadcast(mContext, sRequestCode.incrementAndGet(), intent, 0);
+	}
+
+	private class PendingSms {
+		public int index;
+		public Message message;
+		public String address;
+		public String text;
+		public long threadId;
+		public Uri outboxUri;
+	}
+
+	/**
+	 * Sends a message without blocking on the compose or network work. Mms messages are composed and persisted on
+	 * one of the executor's compose threads and then uploaded on a network thread, so consecutive messages overlap.
+	 * If the executor already holds as many messages as it allows, this call blocks until a slot frees up.
+	 * 
+	 * @param message
+	 *            is the message to send
+	 * @param threadId
+	 *            is the thread to send the message into
+	 * @param callback
+	 *            is notified on a worker thread when the message finishes, can be null
+	 * @return a future holding the outbox uri or the error for the message
+	 * @throws InterruptedException
+	 *             when interrupted while waiting for room in the executor
+	 */
+	public Future<SendResult> sendNewMessageAsync(final Message message, final long threadId, SendExecutor.Callback callback) throws InterruptedException {
+		final SendExecutor executor = getSendExecutor();
+		final SendExecutor.SendFuture future = executor.acquire(message, callback);
+
+		try {
+			executor.executeCompose(new Runnable() {
+				@Override
+				public void run() {
+					if (!checkMMS(message)) {
+						try {
+							future.complete(new SendResult(message, sendNewMessage(message, threadId), null));
+						} catch (Exception e) {
+							future.complete(SendResult.failed(message, null, e));
+						}
+						return;
+					}
+
+					final MessageInfo info;
+					try {
+						info = composeMmsMessage(message.getText(), message.getAddresses(), message.getImages(), message.getMedia(), message.getMediaMimeType(), message.getAttachments(), message.getSubject());
+					} catch (Exception e) {
+						future.complete(new SendResult(message, null, e));
+						return;
+					}
+
+					try {
+						executor.executeNetwork(new Runnable() {
+							@Override
+							public void run() {
+								try {
+									future.complete(new SendResult(message, sendComposedMessage(info), null));
+								} catch (Exception e) {
+									future.complete(SendResult.failed(message, info.getLocationIfPersisted(), e));
+								}
+							}
+						});
+					} catch (RejectedExecutionException e) {
+						future.complete(new SendResult(message, info.getLocationIfPersisted(), e));
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// the executor was shut down, give back the slot taken above
+			future.complete(new SendResult(message, null, e));
+		}
+
+		return future;
+	}
+
+	/**
+	 * Sets the executor used by sendNewMessageAsync
+	 * 
+	 * @param executor
+	 *            is the executor to use, or null to use the shared default
+	 */
+	public void setSendExecutor(SendExecutor executor) {
+		mSendExecutor = executor;
+	}
+
+	private SendExecutor getSendExecutor() {
+		return mSendExecutor != null ? mSendExecutor : SendExecutor.getDefault();
+	}
+
+	private Uri sendMmsMessage(String text, String[] addresses, Bitmap[] image, byte[] media, String mimeType, MMSPart[] attachments, String subject) throws SocketException, IOException, MmsException {
+		MessageInfo info = composeMmsMessage(text, addresses, image, media, mimeType, attachments, subject);
+		return sendComposedMessage(info);
+	}
+
+	/**
+	 * Uploads a composed message while its outbox row is still being written, then moves the row to the sent box
+	 * once both are done. A failed upload leaves the row in the outbox. If the upload went through but the row could
+	 * not be written or moved, a NotRecordedException is thrown so the message is not sent again.
+	 */
+	private Uri sendComposedMessage(MessageInfo info) throws IOException, MmsException {
+		try {
+			sendData(info.bytes);
+		} catch (IOException e) {
+			// still wait for the outbox row so it is complete when it gets scheduled for a retry
+			Uri location = info.getLocationIfPersisted();
+			if (location != null)
+				RetryScheduler.getInstance(mContext).onSendFailed(location);
+			throw e;
+		}
+
+		Uri location = null;
+		try {
+			location = info.getLocation();
+			return PduPersister.getPduPersister(mContext).move(location, Telephony.Mms.Sent.CONTENT_URI);
+		} catch (Exception e) {
+			throw new NotRecordedException(location, e);
+		}
+	}
+
+	private MessageInfo composeMmsMessage(String text, String[] addresses, Bitmap[] image, byte[] media, String mimeType, MMSPart[] attachments, String subject) throws MmsException {
 		// merge the string[] of addresses into a single string so they can be inserted into the database easier
 		String address = "";
 
@@ -129,18 +415,36 @@ public class Transaction {
 
 		address = address.trim();
 
+		MMSPart[] parts = buildMmsParts(text, image, media, mimeType, attachments);
+		return getBytes(address.split(" "), parts, null, subject, null);
+	}
+
+	private MMSPart[] buildMmsParts(String text, Bitmap[] image, byte[] media, String mimeType, MMSPart[] attachments) throws MmsException {
 		// create the parts to send
 		ArrayList<MMSPart> data = new ArrayList<MMSPart>();
 
-		for (int i = 0; i < image.length; i++) {
-			// turn bitmap into byte array to be stored
-			byte[] imageBytes = Message.bitmapToByteArray(image[i]);
+		if (image.length > 0) {
+			// turn the bitmaps into jpegs that fit into whatever the rest of the message leaves of the size limit
+			long budget = MmsConfig.getMaxMessageSize() - PDU_OVERHEAD - media.length - text.getBytes().length;
+			for (int i = 0; i < attachments.length; i++)
+				budget -= getAttachmentSize(attachments[i]);
 
-			MMSPart part = new MMSPart();
-			part.MimeType = "image/jpeg";
-			part.Name = "image" + i;
-			part.Data = imageBytes;
-			data.add(part);
+			ImageEncoder.Result encoded = ImageEncoder.encode(image, (int) Math.max(budget, 0));
+
+			if (BuildConfig.DEBUG)
+				Log.v(TAG, "encoded images to " + Arrays.toString(encoded.getSizes()) + " bytes in " + encoded.getPasses() + " passes");
+
+			if (!encoded.fitsBudget())
+				throw new MmsException("Images do not fit in the " + MmsConfig.getMaxMessageSize() + " byte message size limit");
+
+			byte[][] imageBytes = encoded.getImages();
+			for (int i = 0; i < imageBytes.length; i++) {
+				MMSPart part = new MMSPart();
+				part.MimeType = "image/jpeg";
+				part.Name = "image" + i;
+				part.Data = imageBytes[i];
+				data.add(part);
+			}
 		}
 
 		// add any extra media according to their mimeType set in the message
@@ -153,6 +457,10 @@ public class Transaction {
 			data.add(part);
 		}
 
+		// attachments only carry their uri, the composer and persister read them straight from it
+		for (int i = 0; i < attachments.length; i++)
+			data.add(attachments[i]);
+
 		if (!text.equals("")) {
 			// add text to the end of the part and send
 			MMSPart part = new MMSPart();
@@ -162,28 +470,77 @@ public class Transaction {
 			data.add(part);
 		}
 
-		MessageInfo info = getBytes(address.split(" "), data.toArray(new MMSPart[data.size()]), subject);
-		sendData(info.bytes);
-		return info.location;
+		return data.toArray(new MMSPart[data.size()]);
 	}
 
-	private MessageInfo getBytes(String[] recipients, MMSPart[] parts, String subject) throws MmsException {
-		final SendReq sendRequest = new SendReq();
-
-		// create send request addresses
-		for (int i = 0; i < recipients.length; i++) {
-			final EncodedStringValue[] phoneNumbers = EncodedStringValue.extract(recipients[i]);
-
-			if (phoneNumbers != null && phoneNumbers.length > 0)
-				sendRequest.addTo(phoneNumbers[0]);
+	/**
+	 * Gets the size of an attachment without reading it, or 0 if the provider does not know it
+	 */
+	private long getAttachmentSize(MMSPart attachment) {
+		AssetFileDescriptor descriptor = null;
+		try {
+			descriptor = mContext.getContentResolver().openAssetFileDescriptor(attachment.Path, "r");
+			return descriptor != null ? Math.max(descriptor.getLength(), 0) : 0;
+		} catch (Exception e) {
+			Log.w(TAG, "unable to get the size of " + attachment.Path, e);
+			return 0;
+		} finally {
+			if (descriptor != null) {
+				try {
+					descriptor.close();
+				} catch (IOException e) {
+					// nothing was read
+				}
+			}
 		}
+	}
 
-		if (subject != null)
-			sendRequest.setSubject(new EncodedStringValue(subject));
+	/**
+	 * Prepares a message that will be sent to many recipients. The images and media are encoded, and the smil and the
+	 * pdu body composed, only once here; each sendTemplate call then only composes the address headers. Templates are
+	 * always sent as mms and the addresses of the message are ignored.
+	 * 
+	 * @param message
+	 *            is the message holding the text, subject and attachments to send
+	 * @return the template to pass to sendTemplate
+	 * @throws MmsException
+	 *             when the body cannot be composed
+	 */
+	public MessageTemplate createTemplate(Message message) throws MmsException {
+		MMSPart[] parts = buildMmsParts(message.getText(), message.getImages(), message.getMedia(), message.getMediaMimeType(), message.getAttachments());
+		byte[] smil = createSmil(parts);
+
+		SendReq sendRequest = new SendReq();
+		sendRequest.setBody(buildPduBody(parts, smil));
+
+		byte[] body = new PduComposer(mContext, sendRequest).makeBody();
+		if (body == null)
+			throw new MmsException("Unable to compose the message body");
+
+		return new MessageTemplate(message, parts, smil, body);
+	}
 
-		sendRequest.setDate(Calendar.getInstance().getTimeInMillis() / 1000L);
-		sendRequest.setFrom(new EncodedStringValue(Utils.getMyPhoneNumber(mContext)));
+	/**
+	 * Sends a template to a set of recipients, composing only their address headers
+	 * 
+	 * @param template
+	 *            is the template created by createTemplate
+	 * @param addresses
+	 *            is the array of phone numbers to send to
+	 * @return the uri of the message in the sent box
+	 */
+	public Uri sendTemplate(MessageTemplate template, String[] addresses) throws SocketException, IOException, MmsException {
+		MessageInfo info = getBytes(addresses, template.getParts(), template.getSmil(), template.getMessage().getSubject(), template.getBody());
+		return sendComposedMessage(info);
+	}
+
+	private byte[] createSmil(MMSPart[] parts) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SmilXmlSerializer.serialize(SmilHelper.createSmilDocument(buildPduBody(parts, null)), out);
+		return out.toByteArray();
+	}
 
+	private PduBody buildPduBody(MMSPart[] parts, byte[] smil) {
 		final PduBody pduBody = new PduBody();
 
 		// assign parts to the pdu body which contains sending data
@@ -197,50 +554,142 @@ public class Transaction {
 				if (part.MimeType.startsWith("text"))
 					partPdu.setCharset(CharacterSets.UTF_8);
 
-				partPdu.setData(part.Data);
+				if (part.Data != null)
+					partPdu.setData(part.Data);
+				else
+					partPdu.setDataUri(part.Path);
 
 				pduBody.addPart(partPdu);
 			}
 		}
 
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		SmilXmlSerializer.serialize(SmilHelper.createSmilDocument(pduBody), out);
-		PduPart smilPart = new PduPart();
-		smilPart.setContentId("smil".getBytes());
-		smilPart.setContentLocation("smil.xml".getBytes());
-		smilPart.setContentType(ContentType.APP_SMIL.getBytes());
-		smilPart.setData(out.toByteArray());
-		pduBody.addPart(0, smilPart);
+		if (smil != null) {
+			PduPart smilPart = new PduPart();
+			smilPart.setContentId("smil".getBytes());
+			smilPart.setContentLocation("smil.xml".getBytes());
+			smilPart.setContentType(ContentType.APP_SMIL.getBytes());
+			smilPart.setData(smil);
+			pduBody.addPart(0, smilPart);
+		}
+
+		return pduBody;
+	}
+
+	private MessageInfo getBytes(String[] recipients, MMSPart[] parts, byte[] smil, String subject, byte[] body) throws MmsException {
+		final SendReq sendRequest = new SendReq();
+
+		// create send request addresses
+		for (int i = 0; i < recipients.length; i++) {
+			final EncodedStringValue[] phoneNumbers = EncodedStringValue.extract(recipients[i]);
 
-		sendRequest.setBody(pduBody);
+			if (phoneNumbers != null && phoneNumbers.length > 0)
+				sendRequest.addTo(phoneNumbers[0]);
+		}
+
+		if (subject != null)
+			sendRequest.setSubject(new EncodedStringValue(subject));
+
+		sendRequest.setDate(Calendar.getInstance().getTimeInMillis() / 1000L);
+		sendRequest.setFrom(new EncodedStringValue(Utils.getMyPhoneNumber(mContext)));
+
+		// the smil only depends on the parts, so a template hands in the one it already built
+		if (smil == null)
+			smil = createSmil(parts);
+
+		sendRequest.setBody(buildPduBody(parts, smil));
 
 		// create byte array which will actually be sent
 		final PduComposer composer = new PduComposer(mContext, sendRequest);
-		final byte[] bytesToSend = composer.make();
+		final byte[] bytesToSend = body != null ? composer.make(body) : composer.make();
 
 		MessageInfo info = new MessageInfo();
 		info.bytes = bytesToSend;
 
-		PduPersister persister = PduPersister.getPduPersister(mContext);
-		info.location = persister.persist(sendRequest, Telephony.Mms.Outbox.CONTENT_URI, true, mSettings.getGroup(), null);
+		// the composer is done with the request, so the outbox write can run alongside the upload
+		final PduPersister persister = PduPersister.getPduPersister(mContext);
+		Callable<Uri> persist = new Callable<Uri>() {
+			@Override
+			public Uri call() throws MmsException {
+				return persister.persist(sendRequest, Telephony.Mms.Outbox.CONTENT_URI, true, mSettings.getGroup(), null);
+			}
+		};
+
+		try {
+			info.location = getSendExecutor().submitPersist(persist);
+		} catch (RejectedExecutionException e) {
+			// the executor was shut down, write the row on this thread instead
+			FutureTask<Uri> task = new FutureTask<Uri>(persist);
+			task.run();
+			info.location = task;
+		}
 
 		return info;
 	}
 
 	private class MessageInfo {
-		public Uri location;
+		public Future<Uri> location;
 		public byte[] bytes;
+
+		public Uri getLocation() throws MmsException {
+			try {
+				return location.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MmsException("Interrupted while persisting message", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof MmsException)
+					throw (MmsException) e.getCause();
+
+				throw new MmsException(e.getCause());
+			}
+		}
+
+		public Uri getLocationIfPersisted() {
+			try {
+				return getLocation();
+			} catch (MmsException e) {
+				Log.e(TAG, "unable to persist message to the outbox", e);
+				return null;
+			}
+		}
 	}
 
-	private void sendData(final byte[] bytesToSend) throws IOException, SocketException {
+	/**
+	 * Sends an mms that is already stored in the outbox again and moves it to the sent box once it is through
+	 * 
+	 * @param uri
+	 *            is the uri of the stored message
+	 * @return the uri of the message in the sent box
+	 */
+	Uri resendMmsMessage(Uri uri) throws IOException, MmsException {
+		PduPersister persister = PduPersister.getPduPersister(mContext);
+		GenericPdu pdu = persister.load(uri);
+
+		if (!(pdu instanceof SendReq))
+			throw new MmsException("Not a send request: " + uri);
+
+		byte[] bytesToSend = new PduComposer(mContext, pdu).make();
+		if (bytesToSend == null)
+			throw new MmsException("Unable to compose " + uri);
+
+		sendData(bytesToSend);
+		return persister.move(uri, Telephony.Mms.Sent.CONTENT_URI);
+	}
+
+	TransactionSettings getTransactionSettings() {
 		ConnectivityManager connectivityManager = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
 		NetworkInfo info = connectivityManager.getNetworkInfo(ConnectivityManager.TYPE_MOBILE_MMS);
-		TransactionSettings settings = new TransactionSettings(mContext, info.getExtraInfo());
+		return TransactionSettings.getCached(mContext, info.getExtraInfo());
+	}
+
+	private void sendData(final byte[] bytesToSend) throws IOException, SocketException {
+		ConnectivityManager connectivityManager = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+		TransactionSettings settings = getTransactionSettings();
 		Utils.ensureRouteToHost(settings.getMmscUrl(), settings, connectivityManager);
 		HttpUtils.httpConnection(mContext, 4444L, settings.getMmscUrl(), bytesToSend, HttpUtils.HTTP_GET_METHOD, settings.isProxySet(), settings.getProxyAddress(), settings.getProxyPort());
 	}
 
 	public boolean checkMMS(Message message) {
-		return message.getImages().length != 0 || (message.getMedia().length != 0 && message.getMediaMimeType() != null) || (mSettings.getSendLongAsMms() && Utils.getNumPages(mSettings, message.getText()) > mSettings.getSendLongAsMmsAfter()) || (message.getAddresses().length > 1 && mSettings.getGroup()) || message.getSubject() != null;
+		return message.getImages().length != 0 || message.getAttachments().length != 0 || (message.getMedia().length != 0 && message.getMediaMimeType() != null) || (mSettings.getSendLongAsMms() && Utils.getNumPages(mSettings, message.getText()) > mSettings.getSendLongAsMmsAfter()) || (message.getAddresses().length > 1 && mSettings.getGroup()) || message.getSubject() != null;
 	}
 }
\ No newline at end of file
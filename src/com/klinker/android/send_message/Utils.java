@@ -6,6 +6,7 @@ import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -19,7 +20,6 @@ import android.database.Cursor;
 import android.net.ConnectivityManager;
 import android.net.Uri;
 import android.os.Bundle;
-import android.telephony.SmsMessage;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 
@@ -34,7 +34,10 @@ import com.google.android.mms.util_alt.SqliteWrapper;
 public class Utils {
 	/**
 	 * characters to compare against when checking for 160 character sending compatibility
+	 * 
+	 * @deprecated use GsmCharset.isEncodable, which checks against the real gsm tables without a regex
 	 */
+	@Deprecated
 	public static final String GSM_CHARACTERS_REGEX = "^[A-Za-z0-9 \\r\\n@Ł$ĽčéůěňÇŘřĹĺ\u0394_\u03A6\u0393\u039B\u03A9\u03A0\u03A8\u03A3\u0398\u039EĆćßÉ!\"#$%&'()*+,\\-./:;<=>?ĄÄÖŃÜ§żäöńüŕ^{}\\\\\\[~\\]|\u20AC]*$";
 
 	/**
@@ -234,7 +237,10 @@ public class Utils {
 	}
 
 	/**
-	 * Gets the number of pages in the SMS based on settings and the length of string
+	 * Gets the number of pages in the SMS based on settings and the length of string, counted among the language
+	 * tables enabled in GsmAlphabet. Those are read from the platform configuration, so the count matches what
+	 * divideMessage sends. For text that is still being typed, a SegmentCounter keeps
+	 * the count up to date without rescanning the whole text on every edit.
 	 * 
 	 * @param settings
 	 *            is the settings object to check against
@@ -243,12 +249,7 @@ public class Utils {
 	 * @return the number of pages required to hold message
 	 */
 	public static int getNumPages(Settings settings, String text) {
-		if (settings.getStripUnicode()) {
-			text = StripAccents.stripAccents(text);
-		}
-
-		int[] data = SmsMessage.calculateLength(text, false);
-		return data[0];
+		return EncodedText.encode(text, settings.getStripUnicode()).getMessageCount();
 	}
 
 	/**
@@ -277,13 +278,37 @@ public class Utils {
 	 * @return the thread_id to use in the database
 	 */
 	public static long getOrCreateThreadId(Context context, Set<String> recipients) {
-		Uri.Builder uriBuilder = Uri.parse("content://mms-sms/threadID").buildUpon();
+		String[] normalized = new String[recipients.size()];
+		int i = 0;
 
 		for (String recipient : recipients) {
-			if (isEmailAddress(recipient)) {
+			// every form of email address holds an @, so skip the regexes for plain phone numbers
+			if (recipient != null && recipient.indexOf('@') >= 0 && isEmailAddress(recipient)) {
 				recipient = extractAddrSpec(recipient);
 			}
 
+			normalized[i++] = recipient;
+		}
+
+		ThreadIdCache cache = ThreadIdCache.getInstance();
+		List<String> key = ThreadIdCache.getKey(normalized);
+		Long cached = cache.get(context, key);
+
+		if (cached != null) {
+			return cached;
+		}
+
+		// a conversation deleted while querying may be the one found, so it is checked again on its next use
+		int generation = cache.getGeneration();
+		long threadId = queryThreadId(context, normalized);
+		cache.put(key, threadId, generation);
+		return threadId;
+	}
+
+	private static long queryThreadId(Context context, String[] recipients) {
+		Uri.Builder uriBuilder = Uri.parse("content://mms-sms/threadID").buildUpon();
+
+		for (String recipient : recipients) {
 			uriBuilder.appendQueryParameter("recipient", recipient);
 		}
 